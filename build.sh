@@ -19,4 +19,6 @@ jar cfm Zoe.jar src/META-INF/MANIFEST.MF -C bin .
 echo "Build complete! JAR file created: Zoe.jar"
 echo ""
 echo "To run: java -classpath Zoe.jar org.holtz.zoe.zoeswing.ZoeFrame"
+echo "Or headless: java -Djava.awt.headless=true -classpath Zoe.jar org.holtz.zoe.ZoeRunner RunCycles=100000"
+echo "Or many seeds: java -Djava.awt.headless=true -classpath Zoe.jar org.holtz.zoe.ZoeEnsemble EnsembleSize=32 RunCycles=100000"
 
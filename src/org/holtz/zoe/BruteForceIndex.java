@@ -0,0 +1,30 @@
+package org.holtz.zoe;
+
+/**
+ * A <code>SpatialIndex</code> that simply checks every bug in the world.
+ * Too slow for big worlds, but obviously right, so it is the reference
+ * against which faster indexes can be checked.
+ * @author Brian Holtz
+ */
+class BruteForceIndex implements SpatialIndex {
+    private final World world;
+
+    BruteForceIndex( World theWorld ) {
+        world = theWorld;
+    }
+
+    public void resize() {}
+
+    public void add( Bug bug ) {}
+
+    public void remove( Bug bug ) {}
+
+    public void move( Bug bug ) {}
+
+    public void search( SpatialSearch search ) {
+        BugStore store = world.bugStore;
+        for (int i = 0; i < store.size; i++) {
+            search.consider( store.bugs[i] );
+        }
+    }
+}
@@ -3,19 +3,18 @@ package org.holtz.zoe;
 import java.awt.Color;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
-import org.holtz.zoe.zoel.Expression;
+import org.holtz.zoe.zoel.Heap;
 import org.holtz.zoe.zoel.Literal;
+import org.holtz.zoe.zoel.LocationLiteral;
 import org.holtz.zoe.zoel.Number;
 import org.holtz.zoe.zoel.Operator;
+import org.holtz.zoe.zoel.Program;
 import org.holtz.zoe.zoel.Register;
 import org.holtz.zoe.zoel.RegisterReference;
-import org.holtz.zoe.zoel.StringLiteral;
 import org.holtz.zoe.zoel.ZoelVM;
 import org.holtz.zoe.zoel.ZoelVMHost;
 
@@ -37,28 +36,46 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     private ArrayList<Bug> children       = new ArrayList<Bug>();
     private Phenotype      phenotype;
 
-    public double          diameter;
-    public double          heading;
-    public double          course;
-    private double         strength;
+    // Our diameter, strength, heading, course, gaze and position live in
+    // this slot of a BugStore, shared with the other bugs in our world
+    BugStore               store;
+    int                    slot;
     private double         cachedMass = -1;
     private boolean        massDirty = true;
-    /**
-     * Gaze in radians relative to heading.
-     */
-    public double          gaze;
     private int            lastCycleLooked;
+    // What this bug could see this cycle, for SenseFarther
+    private transient NeighbourCursor neighbours;
+    // What our turn left to settle after acting in tiles
+    private transient ArrayList<Birth> unbornChildren;
+    private transient double unreportedEnergy;
+    // Our own random numbers this cycle, if RandomStreamPerBug.  These are set while
+    // ZObject's constructor runs, so they must have no initializers of their own.
+    private transient SplitMix randomStream;
+    private transient int  randomCycle;
+    // The registers read so far this turn
+    private transient RegisterSnapshot registers;
     private double         massEnergyAfterLastTurn;
     private double         bittenSinceLastTurn;
+    // The registers a When can read whose changes we keep track of
+    private static final long SizeReads = Program.reads( Register.Size );
+    private static final long StrengthReads = Program.reads( Register.Strength );
+    private static final long PainReads = Program.reads( Register.Pain );
+    private static final long LocationReads = Program.reads( Register.Location );
+    private static final long StampedReads = SizeReads | StrengthReads | PainReads
+        | LocationReads | Program.ReadsHeap
+        | Program.reads( Register.ID ) | Program.reads( Register.Species )
+        | Program.reads( Register.BirthLocation ) | Program.reads( Register.AncestralLocation );
+    // Bumped whenever the register of that name might change, or for heapVersion,
+    // whenever anything is put in our memory
+    private long           sizeVersion;
+    private long           strengthVersion;
+    private long           painVersion;
+    private long           locationVersion;
+    private long           heapVersion;
     /**
      * Bug's memory, shared across all Phenes
      */
-    private Map<Literal, Literal> heap = new LinkedHashMap<Literal, Literal>() {
-        private static final long serialVersionUID = 201203182139L;
-        protected boolean removeEldestEntry(Map.Entry<Literal,Literal> eldest) {
-           return (size() > maxDataSize());
-        }
-    };
+    private Heap           heap = new Heap();
 
     private Point          birthPlace;
     private int            birthCycle     = -1;
@@ -67,29 +84,34 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     private Bug            killer;
     private int            kills;
 
-    private static int     numEverCreated = 0;
+    // Where World's SpatialIndex has filed us, maintained by the index itself
+    transient IndexPosition indexPosition;
+    transient IndexPosition referencePosition;
+    // Where World's ContactBroadphase keeps our contacts
+    transient int          contactGeneration;
+    transient int          contactIndex;
 
     public Bug( World theWorld ) {
         super( theWorld );
-        diameter = World.BugMinSize
-            + world.random.nextInt( World.BugMaxSize - World.BugMinSize ) / 2;
-        strength = world.random.nextFloat() * maxStrength();
-        genotype = new Genotype( world.random );
+        setDiameter( World.BugMinSize
+            + random().nextInt( World.BugMaxSize - World.BugMinSize ) / 2 );
+        setStrength( random().nextFloat() * maxStrength() );
+        genotype = new Genotype( world, random() );
         enterTheWorld();
     }
 
     public Bug( World theWorld, Genotype theGenotype ) {
         super( theWorld );
-        if (theGenotype == Genotype.algae() && World.PlanktonDistributionRandomness < 1) {
-            double distance = theWorld.radius() * World.PlanktonDistributionRandomness * world.random.nextFloat();
+        if (theGenotype == theWorld.algae() && World.PlanktonDistributionRandomness < 1) {
+            double distance = theWorld.radius() * World.PlanktonDistributionRandomness * random().nextFloat();
             setXY( theWorld.midpoint().x, theWorld.midpoint().y );
-            move( world.random.nextFloat() * Math.PI, distance );
+            move( random().nextFloat() * Math.PI, distance );
             System.out.println( String.format("%.0f\n", distance));
         }
         double cost = 2 * minNewbornEnergy();
         double birthMass = cost / 2;
-        this.diameter = Math.sqrt( 4 * birthMass / Math.PI );
-        this.strength = cost / 2;
+        setDiameter( Math.sqrt( 4 * birthMass / Math.PI ));
+        setStrength( cost / 2 );
         this.genotype = theGenotype;
         this.enterTheWorld();
     }
@@ -102,13 +124,12 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
 
     private void enterTheWorld() {
         birthCycle = world.cycle;
-        setCourse(world.random.nextFloat() * Math.PI * 2);
-        setHeading( course );
-        gaze = heading + (world.random.nextFloat() * Math.PI / 2)
-                - (Math.PI / 4);
-        gaze = Point.normalize( gaze );
+        setCourse(random().nextFloat() * Math.PI * 2);
+        setHeading( course() );
+        setGaze( Point.normalize( heading() + (random().nextFloat() * Math.PI / 2)
+                - (Math.PI / 4) ));
         birthPlace = new Point( x(), y() );
-        massEnergyAfterLastTurn = mass() + strength;
+        massEnergyAfterLastTurn = mass() + strength();
         genotype.addMember( this );
         phenotype = new Phenotype( this );
         world.add( this );
@@ -120,9 +141,9 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
         lastSensed = mom;
         mother.lastSensed = this;
         setXY( mother.x(), mother.y() );
-        setHeading(mother.heading + Math.PI);
-        setCourse(mother.course + Math.PI);
-        gaze = bearing( mother );
+        setHeading(mother.heading() + Math.PI);
+        setCourse(mother.course() + Math.PI);
+        setGaze( bearing( mother ));
         if (dad != null) {
             if (World.ChildrenOfAMatingShareGenotype) {
                 Bug sibling = mom.youngestChild();
@@ -130,39 +151,80 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
             }
             if (genotype == null) {
                 // No sibling from this mating pair, so create new genotype
-                genotype = new Genotype( mother.genotype, dad.genotype, world.random, location() );
+                genotype = new Genotype( world, mother.genotype, dad.genotype, random(), location() );
             }
-        } else if (world.random.nextFloat() < World.MutantChildrenFreq) {
-            genotype = new Genotype( mother.genotype, world.random, location() );
+        } else if (random().nextFloat() < World.MutantChildrenFreq) {
+            genotype = new Genotype( world, mother.genotype, random(), location() );
         } else {
             genotype = mother.genotype;
         }
         double birthMass = strength2Invest / 2;
-        diameter = Math.sqrt( 4 * birthMass / Math.PI );
-        strength = strength2Invest / 2;
+        setDiameter( Math.sqrt( 4 * birthMass / Math.PI ));
+        setStrength( strength2Invest / 2 );
         grow( 0 ); // adjust our size if strength is too high or low
-        double birthCost = (strength + mass()) / World.BirthEfficiency;
+        double birthCost = (strength() + mass()) / World.BirthEfficiency;
         mother.shrink( birthCost );
         mother.children.add( this );
     }
 
     @Override
     public void brownianMotion() {
-        setHeading(heading + world.brownianMotion() * Math.PI / 16);
-        setCourse( course  + world.brownianMotion() * Math.PI / 16 );
+        setHeading(heading() + world.brownianMotion( random() ) * Math.PI / 16);
+        setCourse( course()  + world.brownianMotion( random() ) * Math.PI / 16 );
         super.brownianMotion();
     }
 
+    @Override
+    public double x() {
+        return store.x[slot];
+    }
+
+    @Override
+    public double y() {
+        return store.y[slot];
+    }
+
+    @Override
+    protected void place( double x, double y ) {
+        if (store == null) {
+            // Not in a world yet, so keep our state in a store of our own
+            store = new BugStore( 1 );
+            slot = store.add( this );
+        }
+        if (store.x[slot] != x || store.y[slot] != y) locationVersion++;
+        store.x[slot] = x;
+        store.y[slot] = y;
+    }
+
     @Override
     public double radius() {
-        return diameter/2;
+        return store.diameter[slot]/2;
+    }
+
+    public double diameter() {
+        return store.diameter[slot];
+    }
+
+    public double heading() {
+        return store.heading[slot];
+    }
+
+    public double course() {
+        return store.course[slot];
+    }
+
+    /**
+     * Gaze in radians relative to heading.
+     */
+    public double gaze() {
+        return store.gaze[slot];
     }
 
     // Mass is area of circle with diameter of "size"
     @Override
     public double mass() {
         if (massDirty || cachedMass < 0) {
-            cachedMass = mass( diameter );
+            cachedMass = mass( diameter() );
             massDirty = false;
         }
         return cachedMass;
@@ -178,11 +240,20 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
      * @return a double between 0 and 1.0.
      */
     public double strengthRatio() {
-        return strength / maxStrength();
+        return strength() / maxStrength();
     }
 
     public double strength() {
-        return strength;
+        return store.strength[slot];
+    }
+
+    private void setStrength( double newStrength ) {
+        if (newStrength != store.strength[slot]) {
+            strengthVersion++;
+            // Pain compares our mass and strength with before, once we have been bitten
+            if (bittenSinceLastTurn != 0) painVersion++;
+        }
+        store.strength[slot] = newStrength;
     }
 
     public Genotype genotype() {
@@ -190,7 +261,7 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
     
     public boolean isDead() {
-        return diameter < World.BugMinSize;
+        return diameter() < World.BugMinSize;
     }
 
     public int birthCycle() {
@@ -213,8 +284,8 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
 
     public void disappear() {
         if (! isDead()) declareDeath();
-        diameter = 0;
-        strength = 0;
+        setDiameter( 0 );
+        setStrength( 0 );
     }
 
     private void declareDeath() {
@@ -250,12 +321,12 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     private double maxStrength() {
-        return maxStrength( diameter );
+        return maxStrength( diameter() );
     }
 
     private double biteSize() {
         // return mass() * World.BiteFractionOfOwnMass;
-        return diameter * Math.PI * World.BiteFractionOfOwnCircumference;
+        return diameter() * Math.PI * World.BiteFractionOfOwnCircumference;
     }
 
     private void shrink(double howMuch) {
@@ -263,37 +334,49 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     private void grow(double extraStrength) {
-        strength += extraStrength;
+        double strength = strength() + extraStrength;
+        setStrength( strength );
         if (strength > 0 && strength < maxStrength()) return;
         double massEnergy = mass() + strength;
         if (strength < 0) {
             // shrink
-            diameter = Math.sqrt( 4 * massEnergy / Math.PI );
-            strength = 0;
+            setDiameter( Math.sqrt( 4 * massEnergy / Math.PI ));
+            setStrength( 0 );
         } else {
             // grow
-            diameter = 2 * Math.sqrt( massEnergy / 2 / Math.PI );
-            strength = maxStrength();
+            setDiameter( 2 * Math.sqrt( massEnergy / 2 / Math.PI ));
+            setStrength( maxStrength() );
         }
+    }
+
+    private void setDiameter( double newDiameter ) {
+        if (newDiameter != store.diameter[slot]) {
+            sizeVersion++;
+            if (bittenSinceLastTurn != 0) painVersion++;
+        }
+        store.diameter[slot] = newDiameter;
         massDirty = true; // Mark mass cache as invalid when diameter changes
+        // Let the spatial index know in case we changed mass bands
+        world.moved( this );
     }
 
     private double bite(Bug victim) {
         if (victim == null) return 0;
         boolean bugWasAlive = !victim.isDead();
-        double oldDiam = diameter;
-        double oldStrength = strength;
-        double oldBugStrength = victim.strength;
-        double oldBugDiam = victim.diameter;
+        double oldDiam = diameter();
+        double oldStrength = strength();
+        double oldBugStrength = victim.strength();
+        double oldBugDiam = victim.diameter();
 
-        double maxUsableBite = maxStrength( World.BugMaxSize ) - strength;
+        double maxUsableBite = maxStrength( World.BugMaxSize ) - strength();
         double toBite = Math.min( biteSize(), maxUsableBite );
-        double strengthBitten = Math.min( toBite, victim.strength + victim.mass() );
+        double strengthBitten = Math.min( toBite, victim.strength() + victim.mass() );
         grow( World.BiteEfficiency * strengthBitten );
-        assert strength >= 0 : "negative after strengthBitten="
+        assert strength() >= 0 : "negative after strengthBitten="
                 + strengthBitten;
         victim.shrink( strengthBitten );
         victim.bittenSinceLastTurn += strengthBitten;
+        if (strengthBitten != 0) victim.painVersion++;
 
         if (bugWasAlive && victim.isDead()) {
             victim.killer = this;
@@ -305,16 +388,16 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
             String msg = world.cycle + ": " + id + " ("
                 + String.format( "%5.1f", oldDiam ) + " +"
                 + String.format( "%5.1f", oldStrength ) + " => "
-                + String.format( "%5.1f", diameter )
-                + String.format( "%5.1f", strength ) + ")" + " bit " + victim.id
+                + String.format( "%5.1f", diameter() )
+                + String.format( "%5.1f", strength() ) + ")" + " bit " + victim.id
                 + " (" + String.format( "%5.1f", oldBugStrength ) + " + "
                 + String.format( "%5.1f", oldBugDiam ) + " => "
-                + String.format( "%5.1f", victim.strength ) + " + "
-                + String.format( "%5.1f", victim.diameter ) + ")";
+                + String.format( "%5.1f", victim.strength() ) + " + "
+                + String.format( "%5.1f", victim.diameter() ) + ")";
             System.err.println( msg );
         }
-        assert victim.strength >= 0 : "being bit left negative strength";
-        assert oldDiam <= diameter + 0.001 : "bug shrank by biting another bug";
+        assert victim.strength() >= 0 : "being bit left negative strength";
+        assert oldDiam <= diameter() + 0.001 : "bug shrank by biting another bug";
         return strengthBitten;
     }
 
@@ -336,37 +419,47 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
         return 0;
     }
 
-    private Bug randomSplit() {
+    private boolean randomSplit() {
         int mostRecentBirth = 0;
         if (youngestChild() != null) mostRecentBirth = youngestChild().birthCycle();
         if (world().cycle - mostRecentBirth < World.MinCyclesBeforeSpontaneousSplit) {
-            return null;
+            return false;
         }
-        if (world().random.nextDouble() >= World.SplitProbabilityPerCycle) return null;
+        if (random().nextDouble() >= World.SplitProbabilityPerCycle) return false;
         return split( 1 );
     }
 
-    private Bug spawn(double multipleOfMinInvestment) {
+    private boolean spawn(double multipleOfMinInvestment) {
         // TODO push child ID onto stack, or zero
-        if (World.SuppressAllBirths) return null;
+        if (World.SuppressAllBirths) return false;
         double strength2Invest = multipleOfMinInvestment * minNewbornEnergy();
-        if (strength2Invest > strength) return null;
-        Bug child = new Bug( this, lastMate, strength2Invest );
-        if (World.ForgetMateAfterFirstChild) lastMate = null;
-        return child;
+        if (strength2Invest > strength()) return false;
+        beget( strength2Invest );
+        return true;
     }
 
-    private Bug split(double multipleOfMinInvestment) {
-        if (World.SuppressAllBirths) return null;
+    private boolean split(double multipleOfMinInvestment) {
+        if (World.SuppressAllBirths) return false;
         double minStrength2Invest = multipleOfMinInvestment * minNewbornEnergy();
-        double halfMyMassEnergy = (mass() + strength) / 2;
+        double halfMyMassEnergy = (mass() + strength()) / 2;
         if (minStrength2Invest > halfMyMassEnergy) {
             // Cannot make a daughter with more than half our energy
-            return null;
+            return false;
+        }
+        beget( halfMyMassEnergy );
+        return true;
+    }
+
+    private void beget( double strength2Invest ) {
+        if (world.actingInTiles) {
+            // A child joins the world, its species and its family, so it waits
+            // until no other bugs are acting
+            if (unbornChildren == null) unbornChildren = new ArrayList<Birth>();
+            unbornChildren.add( new Birth( lastMate, strength2Invest ));
+        } else {
+            new Bug( this, lastMate, strength2Invest );
         }
-        Bug child = new Bug( this, lastMate, halfMyMassEnergy );
         if (World.ForgetMateAfterFirstChild) lastMate = null;
-        return child;
     }
 
     private boolean isFamily(Bug bug) {
@@ -389,7 +482,7 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     public boolean canSee(ZObject obj) {
         double threshold = World.InvisibilityThreshold;
         // The smallest bugs can see anything
-        if (diameter < World.BugMinSize
+        if (diameter() < World.BugMinSize
                 * World.BiggerThanMinSizeToSeeEverything) threshold = 0;
         if (obj.mass() / mass() < threshold) return false;
         if (!(obj instanceof Bug)) return true;
@@ -411,20 +504,23 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     private ZObject look( double maxRange, double minRange ) {
-        ZObject closest = world.closestObject( this, maxRange, minRange );
+        return lookAt( world.closestObject( this, maxRange, minRange ));
+    }
+
+    private ZObject lookAt( ZObject closest ) {
         if (closest == null) {
-            gaze = 0;
+            setGaze( 0 );
             return null;
         }
         lastSensed = closest;
         double bearing = bearing( closest );
-        gaze = bearing - heading;
+        setGaze( bearing - heading() );
         /*
-        String msg = id + " heading=" + (int) (heading / Math.PI * 180)
+        String msg = id + " heading=" + (int) (heading() / Math.PI * 180)
                 + " sees " + closest.id + " mass="
                 + String.format( "%5.3f", closest.mass() ) + " bearing="
                 + (int) (bearing / Math.PI * 180) + " gaze="
-                + (int) (gaze / Math.PI * 180);
+                + (int) (gaze() / Math.PI * 180);
         msg += "";
         System.out.println( msg );
         */
@@ -432,37 +528,45 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     private void move() {
-        setHeading( heading + world.brownianMotion() * Math.PI / 4 );
-        double howFar = 1 + world.random.nextDouble() * World.MoveNoise * 2
+        setHeading( heading() + world.brownianMotion( random() ) * Math.PI / 4 );
+        double howFar = 1 + random().nextDouble() * World.MoveNoise * 2
                 - World.MoveNoise;
         // Cost to move rises with square of speed
         shrink( howFar * howFar * mass() / 2 * World.StrengthToMove );
-        assert strength >= 0 : world.cycle + " " + id
+        assert strength() >= 0 : world.cycle + " " + id
                 + " strength negative after moving";
-        move(heading, howFar);
+        move(heading(), howFar);
     }
 
     private void turnTowardsCourse() {
-        double turn = course - heading;
+        double turn = course() - heading();
         if (turn < - Math.PI) turn += 2 * Math.PI;
         if (turn > Math.PI) turn -= 2 * Math.PI;
         if (turn > World.MaxTurnPerCycle) turn = World.MaxTurnPerCycle;
         if (turn < - World.MaxTurnPerCycle) turn = - World.MaxTurnPerCycle;
-        setHeading( heading + turn );
+        setHeading( heading() + turn );
     }
 
     private void setHeading( double newHeading ) {
-        heading = Point.normalize( newHeading );
+        store.heading[slot] = Point.normalize( newHeading );
     }
 
     private void setCourse( double newCourse ) {
-        course = Point.normalize( newCourse );
+        store.course[slot] = Point.normalize( newCourse );
+    }
+
+    private void setGaze( double newGaze ) {
+        store.gaze[slot] = newGaze;
     }
 
     private void photoSynthesize() {
         double newEnergy = World.SolarJoulesPerPixelPerCycle
             * getRadius() * getRadius() * Math.PI;
-        world.energyEverPhotosynthesized += newEnergy;
+        if (world.actingInTiles) {
+            unreportedEnergy += newEnergy;
+        } else {
+            world.energyEverPhotosynthesized += newEnergy;
+        }
         grow( newEnergy );
     }
 
@@ -472,7 +576,23 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
     
     private void updateRegisters( double minRange ) {
-        lastSensed = look( World.VisionRange, minRange );
+        updateRegisters( look( World.VisionRange, minRange ));
+    }
+
+    // Look past lastSensed, stepping through this cycle's neighbours
+    // rather than searching the world again for each SenseFarther
+    private void senseFarther() {
+        if (neighbours == null) neighbours = new NeighbourCursor();
+        // Ranges from where we were would not compare with the range of lastSensed
+        if (! neighbours.isCurrent( world.cycle, x(), y() )) {
+            world.gatherNeighbours( this, World.VisionRange, neighbours );
+        }
+        updateRegisters( lookAt( neighbours.closestBeyond( range( lastSensed ))));
+    }
+
+    private void updateRegisters( ZObject sensed ) {
+        lastSensed = sensed;
+        invalidateRegisters();
         if (World.Trace) {
             System.out.println( tracePrefix()
                     + " sensed "
@@ -483,31 +603,47 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     @Override
-    public Expression implicitArgOf(Operator op) {
-        switch (op) {
-            case Turn:
-                return new RegisterReference( Register.Toward );
-            case Split:
-            case Spawn:
-                return new Number( 1 );
-            default:
-                return null;
-        }
+    public Literal get(RegisterReference arg) {
+        if (! arg.reg.isLocation()) return new Number( getNumber( arg ));
+        updateRegisters( arg );
+        RegisterSnapshot snapshot = snapshot( arg );
+        if (snapshot == null) return read( arg );
+        int i = snapshot.index( arg );
+        if (! snapshot.hasLiteral( i )) snapshot.putLiteral( i, read( arg ));
+        return snapshot.literal( i );
     }
 
     @Override
-    public Literal get(RegisterReference arg) {
+    public double getNumber(RegisterReference arg) {
+        updateRegisters( arg );
+        RegisterSnapshot snapshot = snapshot( arg );
+        if (snapshot == null) return readNumber( arg );
+        int i = snapshot.index( arg );
+        if (! snapshot.hasNumber( i )) snapshot.putNumber( i, readNumber( arg ));
+        return snapshot.number( i );
+    }
+
+    // Our snapshot of this turn's registers, or null if this register is not kept in it
+    private RegisterSnapshot snapshot( RegisterReference arg ) {
+        // Objects other than bugs complain about every read of a register they lack
+        if (arg.who == RegisterReference.Whose.It && lastSensed != null
+                && ! (lastSensed instanceof Bug)) return null;
+        if (registers == null) registers = new RegisterSnapshot();
+        return registers;
+    }
+
+    // Sensing or acting can change what any register reads
+    private void invalidateRegisters() {
+        if (registers != null) registers.invalidate();
+    }
+
+    private Literal read(RegisterReference arg) {
         Literal val;
         Bug bug = null;
-        updateRegisters( arg );
         if (lastSensed instanceof Bug) bug = (Bug) lastSensed;
         if (arg.who == RegisterReference.Whose.It) {
             if (bug != null) {
-                if (arg.reg.hasSameValForBothBugs()) {
-                    val = evaluate( arg.reg, bug );
-                } else {
-                    val = bug.evaluate( arg.reg, this );
-                }
+                val = bug.evaluate( arg.reg, this );
             } else if (lastSensed != null) {
                 val = lastSensed.evaluate( arg.reg );
             } else {
@@ -516,8 +652,30 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
         } else {
             val = evaluate( arg.reg, bug );
         }
+        return val;
+    }
+
+    private double readNumber(RegisterReference arg) {
+        double val;
+        Bug bug = null;
+        if (lastSensed instanceof Bug) bug = (Bug) lastSensed;
+        if (arg.who == RegisterReference.Whose.It) {
+            if (bug != null) {
+                if (arg.reg.hasSameValForBothBugs()) {
+                    val = evaluateNumber( arg.reg, bug );
+                } else {
+                    val = bug.evaluateNumber( arg.reg, this );
+                }
+            } else if (lastSensed != null) {
+                val = lastSensed.evaluate( arg.reg ).toNumber();
+            } else {
+                val = 0;
+            }
+        } else {
+            val = evaluateNumber( arg.reg, bug );
+        }
         // System.out.println( cycle() + " " + id() + " " + arg.toString()
-        // + " => " + val.toString() );
+        // + " => " + val );
         return val;
     }
 
@@ -528,104 +686,124 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     
     @Override
     public Literal put(Literal key, Literal value) {
-        return heap.put( key, value );
+        heapVersion++;
+        return heap.put( key, value, maxDataSize() );
     }
     
     private Literal evaluate(Register reg, Bug bug) {
+        switch (reg) {
+            case Location:
+                return new LocationLiteral( x(), y() );
+            case BirthLocation:
+                return new LocationLiteral( birthPlace.getX(), birthPlace.getY() );
+            case AncestralLocation:
+                return new LocationLiteral( genotype.birthPlace.getX(), genotype.birthPlace.getY() );
+            default:
+                return new Number( evaluateNumber( reg, bug ));
+        }
+    }
+
+    private static double truth( boolean val ) {
+        return val ? 1 : 0;
+    }
+
+    // The value of any register but a Location, unboxed
+    private double evaluateNumber(Register reg, Bug bug) {
         switch (reg) {
             case Cycle:
-                return new Number( world.cycle );
+                return world.cycle;
             case ID:
-                return new Number( this.id );
+                return this.id;
             case Age:
-                return new Number( age );
+                return age;
             case Size:
-                return new Number( diameter );
+                return diameter();
             case Strength:
-                return new Number( strength );
+                return strength();
             case Heading:
                 // System.out.println( "this.heading = "
                 // + String.format( "%4.0f", 180 * heading / Math.PI ));
                 if (bug != null) {
                     // System.out.println( "bug.heading = "
                     // + String.format( "%4.0f", 180 * bug.heading / Math.PI ));
-                    return new Number( heading - bug.heading );
+                    return heading() - bug.heading();
                 } else {
                     // Zero is useless, so give absolute value of our heading
-                    return new Number( heading );
+                    return heading();
                 }
-            case Location:
-                return new StringLiteral( location().toString() );
-            case BirthLocation:
-                return new StringLiteral( birthPlace.toString() );
-            case AncestralLocation:
-                return new StringLiteral( genotype.birthPlace.toString() );
             case Species:
-                return new Number( this.genotype.id );
+                return this.genotype.id;
             case Pain:
-                double massEnergyNow = mass() + strength;
+                double massEnergyNow = mass() + strength();
                 //System.out.println( "now: " + String.format( "%4.2f", massEnergyNow )
                 //        + " last: " + String.format( "%4.2f", massEnergyAfterLastTurn )
                 //        + " bitten: " + String.format( "%4.2f", bittenSinceLastTurn ));
-                return new Number( bittenSinceLastTurn > 0 && massEnergyNow < massEnergyAfterLastTurn );
+                return truth( bittenSinceLastTurn > 0 && massEnergyNow < massEnergyAfterLastTurn );
             case FeelSomething:
-                return new Number( range( lastSensed ) - radius() <= 0.1 );
+                return truth( range( lastSensed ) - radius() <= 0.1 );
             case SeeSomething:
-                return new Number( range( lastSensed ) <= World.VisionRange);
+                return truth( range( lastSensed ) <= World.VisionRange);
             case Toward:
-                return new Number( gaze );
+                return gaze();
             case Away:
-                return new Number( this.gaze + Math.PI );
+                return gaze() + Math.PI;
             case IsAlive:
-                return new Number( (!isDead()) && (this.genotype != Genotype.algae()) );
+                return truth( (!isDead()) && (this.genotype != world.algae()) );
             case Range:
-                return new Number( range( lastSensed ) - radius() );
+                return range( lastSensed ) - radius();
             case IsSameSpecies:
                 if (bug != null && !bug.isDead()) {
                     // Compare id in case we ever stop sharing Genotype objects
-                    return new Number( genotype.id == bug.genotype.id );
+                    return truth( genotype.id == bug.genotype.id );
                 } else {
-                    return new Number( false );
+                    return truth( false );
                 }
             case IsFamily:
-                return new Number( isFamily( bug ) );
+                return truth( isFamily( bug ) );
             case IsParent:
-                return new Number( bug != null && bug.mother == this );
+                return truth( bug != null && bug.mother == this );
             case IsLastMate:
-                return new Number( bug != null && bug.lastMate == this );
+                return truth( bug != null && bug.lastMate == this );
             case IsChild:
-                return new Number( bug != null && mother == bug );
+                return truth( bug != null && mother == bug );
             case IsAncestor: // Me.IsAncestor
-                return new Number( this.isAncestorOf( bug ) );
+                return truth( this.isAncestorOf( bug ) );
             case IsDescendent: // Me.IsDescendent
-                return new Number( this.isDescendentOf( bug ) );
+                return truth( this.isDescendentOf( bug ) );
             default:
-                return super.evaluate(  reg );
+                return super.evaluate(  reg ).toNumber();
         }
     }
 
     @Override
     public ZoelVM.Turn execute(Operator operator, Literal operand) {
+        ZoelVM.Turn result = act( operator, operand );
+        // Even an action that fails can change what we sensed
+        invalidateRegisters();
+        return result;
+    }
+
+    private ZoelVM.Turn act(Operator operator, Literal operand) {
         switch (operator) {
             case Move:
                 move();
                 break;
             case Turn:
-                Point dest = Point.parse( operand.toString() );
+                LocationLiteral dest = LocationLiteral.from( operand );
                 if (dest != null) {
-                    setCourse(bearing(dest));
+                    setCourse( Point.bearing( x(), y(), dest.x, dest.y, world, null ));
                 } else {
-                    setCourse( heading + operand.toNumber() );
+                    setCourse( heading() + operand.toNumber() );
                 }
                 break;
             case Bite:
                 if (bite() == 0) return ZoelVM.Turn.Continues;
                 break;
             case Spawn:
-                if (spawn( operand.toNumber() ) == null) return ZoelVM.Turn.Continues;
+                if (! spawn( operand.toNumber() )) return ZoelVM.Turn.Continues;
                 break;
             case Split:
-                if (split( operand.toNumber() ) == null) return ZoelVM.Turn.Continues;
+                if (! split( operand.toNumber() )) return ZoelVM.Turn.Continues;
                 break;
             case Mate:
                 if (mate() == null) return ZoelVM.Turn.Continues;
@@ -634,7 +812,7 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
                 if (lastSensed == null) {
                     updateRegisters( -1 );
                 } else {
-                    updateRegisters( range( lastSensed ) );
+                    senseFarther();
                 }
                 break;
             default:
@@ -643,22 +821,73 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
         return operator.whetherTurnContinues();
     }
 
+    /**
+     * Look around before any bug acts this cycle, while every bug is doing the same.
+     * Our turn then reads what we saw instead of looking again.
+     */
+    void sense() {
+        updateRegisters( 0 );
+    }
+
+    /**
+     * Once every bug has sensed, decide which of our Whens hold.
+     */
+    void decide() {
+        phenotype.decide();
+    }
+
     // Step until turn ends
     public void next() {
         if (isDead()) {
-            if (deathCycle < 0) declareDeath();
+            if (deathCycle < 0 && ! world.actingInTiles) declareDeath();
             brownianMotion();
             return;
         }
+        invalidateRegisters();
         age++;
         photoSynthesize();
-        if (randomSplit() == null) phenotype.next();
-        massEnergyAfterLastTurn = mass() + strength;
+        if (! randomSplit()) phenotype.next();
+        double massEnergy = mass() + strength();
+        // Pain is false until we are bitten again
+        if (bittenSinceLastTurn != 0) painVersion++;
+        massEnergyAfterLastTurn = massEnergy;
         bittenSinceLastTurn = 0;
         turnTowardsCourse();
         brownianMotion();
     }
 
+    /**
+     * After bugs have acted in tiles, make the changes our turn left for later
+     * because they reach beyond our neighbourhood: births, death and tallies.
+     */
+    void settle() {
+        if (unbornChildren != null) {
+            double massEnergy = mass() + strength();
+            for (Birth birth : unbornChildren) {
+                new Bug( this, birth.father, birth.strength2Invest );
+            }
+            unbornChildren = null;
+            // As if they had been born during our turn
+            massEnergyAfterLastTurn += mass() + strength() - massEnergy;
+        }
+        if (isDead() && deathCycle < 0) declareDeath();
+        world.energyEverPhotosynthesized += unreportedEnergy;
+        unreportedEnergy = 0;
+        // Count the steps our Whens took, as an untiled turn would have as it took them
+        phenotype.countSteps();
+    }
+
+    // A child to be born once bugs are done acting in tiles
+    private static class Birth {
+        final Bug father;
+        final double strength2Invest;
+
+        Birth( Bug theFather, double theStrength2Invest ) {
+            father = theFather;
+            strength2Invest = theStrength2Invest;
+        }
+    }
+
     private String ancestralSpecies() {
         if (mother != null) return mother.ancestralSpecies();
         return genotype.name;
@@ -784,11 +1013,11 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
         if (genotype.name != null) msg += "=" + genotype.name;
         msg += "] " + separator;
         if (labels) msg += " strength=";
-        msg += String.format( "$%.2f ", strength );
+        msg += String.format( "$%.2f ", strength() );
         if (labels) msg += " mass=";
         msg += String.format( "%.2fg ", mass() );
         if (labels) msg += " diam=";
-        msg += String.format( "%.1fpx ", diameter );
+        msg += String.format( "%.1fpx ", diameter() );
         if (labels) msg += " age=";
         msg += age + "s";
         if (lastMate != null) msg += " mate=" + lastMate.id;
@@ -804,17 +1033,24 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
 
     @Override
     public int getNextId() {
-        return ++numEverCreated;
+        return world.nextBugId();
     }
 
     @Override
     public int getNumEverCreated() {
-        return numEverCreated;
+        return world.numBugsEverCreated();
     }
 
     @Override
     public Random random() {
-        return world.random;
+        if (! World.RandomStreamPerBug) return world.random;
+        // Drawn on by ZObject's constructor before ours has run
+        if (randomStream == null) randomStream = new SplitMix();
+        if (randomCycle != world.cycle) {
+            randomStream.reseed( world.seed, id, world.cycle );
+            randomCycle = world.cycle;
+        }
+        return randomStream;
     }
 
     @Override
@@ -828,6 +1064,32 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
                 / World.AgeToDataStackLimit );
     }
 
+    /**
+     * A stamp of everything a program that reads these registers of ours depends on,
+     * which changes whenever any of it might, so that a When need not be run again
+     * until then.  The versions only grow, so their sum does too.
+     * @return The stamp, or -1 if what the program reads changes every cycle or
+     *         depends on what we sense
+     */
+    public long readStamp( Program program ) {
+        long reads = program.reads;
+        if ((reads & ~StampedReads) != 0) return -1;
+        // How deep the stack can get grows with age
+        long stamp = maxDataSize();
+        if ((reads & SizeReads) != 0) stamp += sizeVersion;
+        if ((reads & StrengthReads) != 0) stamp += strengthVersion;
+        if ((reads & PainReads) != 0) stamp += painVersion;
+        if ((reads & LocationReads) != 0) stamp += locationVersion;
+        if ((reads & Program.ReadsHeap) != 0) {
+            if (program.heapKeys == null) {
+                stamp += heapVersion;
+            } else {
+                for (Literal key : program.heapKeys) stamp += heap.stamp( key );
+            }
+        }
+        return stamp;
+    }
+
     @Override
     public int maxStepsPerTurn() {
         return World.MaxThoughtsPerCycle;
@@ -838,11 +1100,7 @@ public class Bug extends ZObject implements ZoelVMHost, Serializable {
     }
 
     public double getRadius() {
-        return diameter/2;
-    }
-
-    public static int numEverCreated() {
-        return numEverCreated;
+        return diameter()/2;
     }
 
     public Color color() {
@@ -0,0 +1,120 @@
+package org.holtz.zoe;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The physical state of many <code>Bug</code>s, kept in parallel arrays indexed by slot,
+ * so that sweeps over a crowded world read memory in order instead of chasing
+ * a pointer per bug.  Each <code>Bug</code> is a handle on its store and slot.
+ * A <code>World</code> keeps all the bugs it holds in one store.  A bug not held
+ * by a world, because it was born mid-cycle or has left, keeps a store of its own.
+ * @author Brian Holtz
+ */
+class BugStore implements Serializable {
+    private static final long serialVersionUID = 202610181200L;
+
+    double[] x;
+    double[] y;
+    double[] diameter;
+    double[] strength;
+    double[] heading;
+    double[] course;
+    double[] gaze;
+    Bug[] bugs;
+    int size;
+
+    BugStore( int capacity ) {
+        x = new double[capacity];
+        y = new double[capacity];
+        diameter = new double[capacity];
+        strength = new double[capacity];
+        heading = new double[capacity];
+        course = new double[capacity];
+        gaze = new double[capacity];
+        bugs = new Bug[capacity];
+    }
+
+    /**
+     * Give a bug a new slot, with all its state zero.
+     */
+    int add( Bug bug ) {
+        if (size == bugs.length) grow( Math.max( 1, size * 2 ));
+        bugs[size] = bug;
+        x[size] = y[size] = diameter[size] = strength[size] = 0;
+        heading[size] = course[size] = gaze[size] = 0;
+        return size++;
+    }
+
+    private void grow( int capacity ) {
+        x = Arrays.copyOf( x, capacity );
+        y = Arrays.copyOf( y, capacity );
+        diameter = Arrays.copyOf( diameter, capacity );
+        strength = Arrays.copyOf( strength, capacity );
+        heading = Arrays.copyOf( heading, capacity );
+        course = Arrays.copyOf( course, capacity );
+        gaze = Arrays.copyOf( gaze, capacity );
+        bugs = Arrays.copyOf( bugs, capacity );
+    }
+
+    /**
+     * Free a slot, moving the last bug into it so the slots stay dense.
+     */
+    void remove( int slot ) {
+        int last = --size;
+        if (slot != last) {
+            copy( last, this, slot );
+            bugs[slot] = bugs[last];
+            bugs[slot].slot = slot;
+        }
+        bugs[last] = null;
+    }
+
+    private void copy( int from, BugStore to, int toSlot ) {
+        to.x[toSlot] = x[from];
+        to.y[toSlot] = y[from];
+        to.diameter[toSlot] = diameter[from];
+        to.strength[toSlot] = strength[from];
+        to.heading[toSlot] = heading[from];
+        to.course[toSlot] = course[from];
+        to.gaze[toSlot] = gaze[from];
+    }
+
+    /**
+     * Move a bug's state into this store from wherever it was kept.
+     */
+    void admit( Bug bug ) {
+        if (bug.store == this) return;
+        int newSlot = add( bug );
+        BugStore oldStore = bug.store;
+        int oldSlot = bug.slot;
+        oldStore.copy( oldSlot, this, newSlot );
+        bug.store = this;
+        bug.slot = newSlot;
+        oldStore.remove( oldSlot );
+    }
+
+    /**
+     * Move a bug's state out of this store into a store of its own.
+     */
+    void retire( Bug bug ) {
+        if (bug.store != this) return;
+        new BugStore( 1 ).admit( bug );
+    }
+
+    double totalMass() {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += Math.PI * diameter[i] * diameter[i] / 4;
+        }
+        return total;
+    }
+
+    double totalStrength() {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += strength[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,180 @@
+package org.holtz.zoe;
+
+import java.util.Arrays;
+
+/**
+ * For each <code>Bug</code>, the other bugs close enough that they might touch it
+ * at some point during the current cycle, found in one sweep when the cycle's
+ * first search needs them.  Bite, Mate and FeelSomething only care about what
+ * is touching, so they check a bug's short contact list instead of searching
+ * the world.
+ * The lists allow every bug some slack to move and grow during the cycle.
+ * If any bug exceeds it, or bugs come or go, the lists are abandoned
+ * until the next cycle, and searches fall back to the spatial index.
+ * @author Brian Holtz
+ */
+class ContactBroadphase {
+    // How far a bug may move, or its radius grow, before its contacts are out of date
+    private static final double Allowance = 2;
+    // Two bugs within Slack of touching are contacts.  Each of them moving
+    // and growing by Allowance cannot close a gap bigger than this.
+    private static final double Slack = 4 * Allowance;
+
+    private final World world;
+    // Cycle the contacts were found in
+    int cycle = -1;
+    private boolean valid;
+    // Tells this sweep's bugs from bugs indexed by an earlier one
+    private int generation;
+    private Bug[] bugs = new Bug[0];
+    private int numBugs;
+    // Where and how big each bug was when the contacts were found
+    private double[] anchorX = new double[0];
+    private double[] anchorY = new double[0];
+    private double[] anchorRadius = new double[0];
+    // The contacts of bug i are contacts[contactStart[i]] up to contacts[contactStart[i+1]]
+    private int[] contactStart = new int[1];
+    private Bug[] contacts = new Bug[0];
+    private int numContacts;
+    // A one-shot grid for the sweep, as linked lists of bug numbers
+    private int[] cellHead = new int[0];
+    private int[] nextInCell = new int[0];
+
+    ContactBroadphase( World theWorld ) {
+        world = theWorld;
+    }
+
+    /**
+     * Whether from's contact list is good for the rest of this cycle.
+     */
+    boolean covers( Bug from ) {
+        refresh();
+        return valid && from.contactGeneration == generation;
+    }
+
+    /**
+     * Find this cycle's contacts, if not yet found.
+     */
+    void refresh() {
+        if (cycle != world.cycle) sweep();
+    }
+
+    /**
+     * Offer the search every contact of from.  Anything within range
+     * of from's own radius is sure to be among them.
+     */
+    void search( Bug from, SpatialSearch search ) {
+        int end = contactStart[from.contactIndex + 1];
+        for (int i = contactStart[from.contactIndex]; i < end; i++) {
+            search.consider( contacts[i] );
+        }
+    }
+
+    // Called whenever a bug moves or changes size
+    void moved( Bug bug ) {
+        if (! valid || bug.contactGeneration != generation) return;
+        int i = bug.contactIndex;
+        double dx = Point.delta( anchorX[i], bug.x(), world.width );
+        double dy = Point.delta( anchorY[i], bug.y(), world.height );
+        if (dx * dx + dy * dy > Allowance * Allowance
+                || bug.radius() - anchorRadius[i] > Allowance) {
+            valid = false;
+        }
+    }
+
+    // Called when bugs enter or leave the world other than by dying
+    void invalidate() {
+        valid = false;
+    }
+
+    private void sweep() {
+        cycle = world.cycle;
+        valid = true;
+        generation++;
+        numBugs = 0;
+        numContacts = 0;
+        BugStore store = world.bugStore;
+        if (bugs.length < store.size) {
+            int capacity = store.size * 2;
+            bugs = new Bug[capacity];
+            anchorX = new double[capacity];
+            anchorY = new double[capacity];
+            anchorRadius = new double[capacity];
+            contactStart = new int[capacity + 1];
+            nextInCell = new int[capacity];
+        } else {
+            Arrays.fill( bugs, null );
+        }
+        double maxRadius = 0;
+        for (int slot = 0; slot < store.size; slot++) {
+            double radius = store.diameter[slot] / 2;
+            // Gone
+            if (radius <= 0) continue;
+            Bug bug = store.bugs[slot];
+            bug.contactGeneration = generation;
+            bug.contactIndex = numBugs;
+            bugs[numBugs] = bug;
+            anchorX[numBugs] = store.x[slot];
+            anchorY[numBugs] = store.y[slot];
+            anchorRadius[numBugs] = radius;
+            maxRadius = Math.max( maxRadius, radius );
+            numBugs++;
+        }
+
+        // Contacts are never more than a cell apart
+        double reach = 2 * maxRadius + Slack;
+        int cols = Math.max( 1, (int)(world.width / reach) );
+        int rows = Math.max( 1, (int)(world.height / reach) );
+        double cellWidth = world.width / (double)cols;
+        double cellHeight = world.height / (double)rows;
+        if (cellHead.length < cols * rows) cellHead = new int[cols * rows];
+        Arrays.fill( cellHead, 0, cols * rows, -1 );
+        for (int i = 0; i < numBugs; i++) {
+            int cell = row( anchorY[i], cellHeight, rows ) * cols + col( anchorX[i], cellWidth, cols );
+            nextInCell[i] = cellHead[cell];
+            cellHead[cell] = i;
+        }
+
+        // Neighbouring cells, without visiting any twice when the grid is narrow
+        int[] neighbourCells = new int[9];
+        for (int i = 0; i < numBugs; i++) {
+            contactStart[i] = numContacts;
+            int col = col( anchorX[i], cellWidth, cols );
+            int row = row( anchorY[i], cellHeight, rows );
+            int numNeighbourCells = 0;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int cell = Math.floorMod( row + dy, rows ) * cols + Math.floorMod( col + dx, cols );
+                    boolean seen = false;
+                    for (int k = 0; k < numNeighbourCells; k++) {
+                        if (neighbourCells[k] == cell) seen = true;
+                    }
+                    if (! seen) neighbourCells[numNeighbourCells++] = cell;
+                }
+            }
+            for (int k = 0; k < numNeighbourCells; k++) {
+                for (int j = cellHead[neighbourCells[k]]; j >= 0; j = nextInCell[j]) {
+                    if (j == i) continue;
+                    double dx = Point.delta( anchorX[i], anchorX[j], world.width );
+                    double dy = Point.delta( anchorY[i], anchorY[j], world.height );
+                    double touching = anchorRadius[i] + anchorRadius[j] + Slack;
+                    if (dx * dx + dy * dy >= touching * touching) continue;
+                    if (numContacts == contacts.length) {
+                        contacts = Arrays.copyOf( contacts, Math.max( 16, numContacts * 2 ));
+                    }
+                    contacts[numContacts++] = bugs[j];
+                }
+            }
+        }
+        contactStart[numBugs] = numContacts;
+        Arrays.fill( contacts, numContacts, contacts.length, null );
+    }
+
+    private static int col( double x, double cellWidth, int cols ) {
+        return Math.min( cols - 1, (int)(x / cellWidth) );
+    }
+
+    private static int row( double y, double cellHeight, int rows ) {
+        return Math.min( rows - 1, (int)(y / cellHeight) );
+    }
+}
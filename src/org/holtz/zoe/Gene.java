@@ -2,10 +2,13 @@ package org.holtz.zoe;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.holtz.zoe.zoel.ExpressionList;
 import org.holtz.zoe.zoel.Operation;
 import org.holtz.zoe.zoel.Operator;
+import org.holtz.zoe.zoel.Program;
+import org.holtz.zoe.zoel.ProgramHandle;
 import org.holtz.zoe.zoel.ZoelTokenizer;
 
 /**
@@ -13,12 +16,19 @@ import org.holtz.zoe.zoel.ZoelTokenizer;
  * @author Brian Holtz
  */
 public class Gene implements Serializable {
+    // No bug sees a gene's id, so the worlds running in a process share one counter
+    private static final AtomicInteger numEverCreated = new AtomicInteger();
     protected int id = getNextId();
     protected ExpressionList when;
     protected ExpressionList action;
-    private static Gene split = split();
-
-    private static int numEverCreated = 0;
+    // Compiled when first run, and shared by every Bug of every species with this Gene
+    private transient Program whenProgram;
+    private transient Program actionProgram;
+    // The When program composed into a MethodHandle, once it is hot
+    private transient ProgramHandle whenHandle;
+    private transient boolean whenComposed;
+    // Steps taken interpreting the When program
+    private transient long whenSteps;
 
     protected Gene( ExpressionList w, ExpressionList a ) {
         when = w;
@@ -35,6 +45,49 @@ public class Gene implements Serializable {
         }
     }
 
+    Program whenProgram() {
+        if (whenProgram == null) {
+            // When's stack is looked at when its turn ends
+            whenProgram = Program.compile( when ).optimized( false, World.MaxThoughtsPerCycle );
+        }
+        return whenProgram;
+    }
+
+    /**
+     * Whether the When program is compiled yet.  Bugs deciding in parallel only run
+     * Whens that are, so that no two of them compile the same one at once.
+     */
+    boolean isWhenCompiled() {
+        return whenProgram != null;
+    }
+
+    Program actionProgram() {
+        if (actionProgram == null) {
+            // Do resumes where it left off when its turn ends
+            actionProgram = Program.compile( action ).optimized( true, World.MaxThoughtsPerCycle );
+        }
+        return actionProgram;
+    }
+
+    /**
+     * The When program as a MethodHandle, or null if it is still interpreted.
+     */
+    ProgramHandle whenHandle() {
+        return whenHandle;
+    }
+
+    /**
+     * Count the steps taken interpreting When, and compose it once it is hot
+     * in a species common enough to be worth it.  Rare mutants stay interpreted.
+     */
+    void interpretedWhen( int steps, Genotype species ) {
+        whenSteps += steps;
+        if (whenComposed || whenSteps < World.ComposeWhenMinSteps
+                || species.numLiving < World.ComposeWhenMinLiving) return;
+        whenComposed = true;
+        whenHandle = ProgramHandle.compose( whenProgram() );
+    }
+
     public boolean isFertile() {
         return action.isFertile();
     }
@@ -64,12 +117,10 @@ public class Gene implements Serializable {
     }
     
     public static Gene split() {
-        if (split != null) return split;
         Operation spawn = new Operation( Operator.Split );
         ExpressionList doList = new ExpressionList();
         doList.add( spawn );
-        split = new Gene( null, doList );
-        return split;
+        return new Gene( null, doList );
     }
 
     public String toString(String statementSeparator ) {
@@ -87,6 +138,6 @@ public class Gene implements Serializable {
     }
 
     private static int getNextId() {
-        return ++numEverCreated;
+        return numEverCreated.incrementAndGet();
     }
 }
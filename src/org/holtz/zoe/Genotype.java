@@ -6,7 +6,6 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Random;
 
 import org.holtz.zoe.zoel.Operation;
@@ -17,20 +16,22 @@ import org.holtz.zoe.zoel.ZoelTokenizer;
 * @author Brian Holtz
 */
 public class Genotype implements Serializable {
-    private static int numEverCreated = 0;
-    private static ArrayList<Genotype> founders;
+    // Algae is species 1 in every world, so each world's own species begin with 2
+    static final int AlgaeId = 1;
     private static String extension = ".zoe";
-    private static Genotype algae = algae();
 
-    public int id = getNextId();
+    public int id;
     public Point birthPlace;
     public String name;
     private Genotype parent;
     public Color color;
     public GeneList genes;
     public int numLiving = 0;
+    // Whether the programs of our genes have all been compiled
+    private transient boolean compiled;
 
-    private Genotype( GeneList theGenes, String theName ) {
+    private Genotype( int theId, GeneList theGenes, String theName ) {
+        id = theId;
         genes = theGenes;
         name = theName;
         if (name.endsWith( extension )) {
@@ -38,10 +39,11 @@ public class Genotype implements Serializable {
         }
         color = World.color( name );
     }
-    public Genotype( Genotype mom, Random random, Point where ) {
-        this( mom, null, random, where );
+    public Genotype( World world, Genotype mom, Random random, Point where ) {
+        this( world, mom, null, random, where );
     }
-    public Genotype( Genotype mom, Genotype dad, Random random, Point where ) {
+    public Genotype( World world, Genotype mom, Genotype dad, Random random, Point where ) {
+        id = world.nextSpeciesId();
         parent = mom;
         birthPlace = where;
         // If parents are same species, then just mutate.
@@ -58,31 +60,36 @@ public class Genotype implements Serializable {
         }
 
     }
-    public Genotype( Random random ) {
+    public Genotype( World world, Random random ) {
+        id = world.nextSpeciesId();
         color = World.color( random.nextInt() );
         genes = new GeneList( random, World.MaxGenesOfRandomSpecies );
         //System.out.println( "Random genotype:\n" + toString( "\n" ));
     }
-    public static Genotype algae() {
-        if (algae != null) return algae;
+    /**
+     * A new Algae species, for a world to keep as its own.
+     */
+    static Genotype algae() {
         GeneList geneList = new GeneList();
         geneList.add( Gene.split() );
-        algae = new Genotype( geneList, "Algae" );
+        Genotype algae = new Genotype( AlgaeId, geneList, "Algae" );
         algae.color = Color.GREEN;
         return algae;
     }
-    private static void loadFounders() {
-        if (founders != null) return;
-        founders  = new ArrayList<Genotype>();
+    /**
+     * Read the founding species from the bugs directory, as species of the given world.
+     */
+    static ArrayList<Genotype> loadFounders( World world ) {
+        ArrayList<Genotype> founders = new ArrayList<Genotype>();
         File dir = new File("bugs");
         File[] children = dir.listFiles();
-        if (children == null) return;
+        if (children == null) return founders;
         for (int i=0; i<children.length; i++) {
             if (children[i].isDirectory()) continue;
             if (! children[i].getName().endsWith( extension )) continue;
             try {
                 GeneList genes = GeneList.parse( new ZoelTokenizer( new FileReader( children[i] )));
-                Genotype species = new Genotype( genes, children[i].getName() );
+                Genotype species = new Genotype( world.nextSpeciesId(), genes, children[i].getName() );
                 founders.add( species );
             } catch (FileNotFoundException e) {
                 e.printStackTrace(); System.exit(1);
@@ -92,30 +99,18 @@ public class Genotype implements Serializable {
             }
         }
         //for (Genotype species : founders) System.out.println( species.toString( "\n" ));
-    }
-    public static int getNextId() {
-        return ++numEverCreated;
-    }
-    public static int getNumEverCreated() {
-        return numEverCreated;
-    }
-    public static Collection<Genotype> getFounders() {
-        loadFounders();
         return founders;
     }
-    public static int getNumFounders() {
-        loadFounders();
-        return founders.size();
-    }
-    public static Genotype founder(int nth) {
-        loadFounders();
-        if (founders.size() < (nth+1)) return null;
-        return founders.get( nth );
-    }
-    public static Genotype randomFounder(Random random) {
-        loadFounders();
-        if (founders.size() > 0) return founders.get( random.nextInt( founders.size() ) );
-        return new Genotype( random );
+    /**
+     * Compile the programs of our genes now, rather than when first run.
+     */
+    void compile() {
+        if (compiled) return;
+        for (Gene gene : genes) {
+            if (gene.when != null) gene.whenProgram();
+            gene.actionProgram();
+        }
+        compiled = true;
     }
     public void addMember( Bug bug ) {
         if (birthPlace == null) {
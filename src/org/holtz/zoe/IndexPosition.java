@@ -0,0 +1,25 @@
+package org.holtz.zoe;
+
+/**
+ * Where a <code>SpatialIndex</code> has filed a <code>Bug</code>, so that it can
+ * find the bug again in O(1) when the bug moves or leaves the world.
+ * A bug has separate positions in the world's index and in any reference
+ * index that the world is being checked against.
+ * @author Brian Holtz
+ */
+final class IndexPosition {
+    boolean filed;
+    int cell;
+    int slot;
+    // The MassBands band the bug was filed under
+    int band;
+
+    static IndexPosition of( Bug bug, boolean reference ) {
+        if (reference) {
+            if (bug.referencePosition == null) bug.referencePosition = new IndexPosition();
+            return bug.referencePosition;
+        }
+        if (bug.indexPosition == null) bug.indexPosition = new IndexPosition();
+        return bug.indexPosition;
+    }
+}
@@ -0,0 +1,43 @@
+package org.holtz.zoe;
+
+/**
+ * Spatial indexes file bugs by mass band as well as by place, so that a search
+ * can pass over whole bands of bugs too small for the searcher to see.
+ * Each band spans a factor of two in mass.
+ * @author Brian Holtz
+ */
+final class MassBands {
+    static final int Count = 16;
+    static final int All = (1 << Count) - 1;
+
+    private MassBands() {}
+
+    static int of( double mass ) {
+        int band = Math.getExponent( mass );
+        if (band < 0) return 0;
+        if (band >= Count) return Count - 1;
+        return band;
+    }
+
+    /**
+     * Bit mask of the bands that might hold bugs the viewer can see.
+     * A band is left out only if every mass in it fails the
+     * <code>InvisibilityThreshold</code> test of <code>Bug.canSee()</code>.
+     */
+    static int visibleTo( Bug viewer ) {
+        double threshold = World.InvisibilityThreshold;
+        // The smallest bugs can see anything
+        if (viewer.diameter() < World.BugMinSize
+                * World.BiggerThanMinSizeToSeeEverything) return All;
+        // Allow for rounding in canSee()'s division
+        double minVisibleMass = threshold * viewer.mass() * (1 - 1e-9);
+        int mask = All;
+        // The top band has no upper bound
+        for (int band = 0; band < Count - 1; band++) {
+            double bandLimit = Math.scalb( 1.0, band + 1 );
+            if (bandLimit > minVisibleMass) break;
+            mask &= ~(1 << band);
+        }
+        return mask;
+    }
+}
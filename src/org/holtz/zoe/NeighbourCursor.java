@@ -0,0 +1,138 @@
+package org.holtz.zoe;
+
+import java.util.Arrays;
+
+/**
+ * The objects a <code>Bug</code> could see during one cycle, sorted nearest first,
+ * so that repeated <code>SenseFarther</code> operations step through them
+ * instead of searching the world again.
+ * @author Brian Holtz
+ */
+class NeighbourCursor {
+    private static final int InitialCapacity = 16;
+
+    // Cycle in which the neighbours were gathered, and where from
+    int cycle = -1;
+    private double x;
+    private double y;
+    private ZObject[] objects = new ZObject[InitialCapacity];
+    private double[] ranges = new double[InitialCapacity];
+    private int size;
+    // Where the last search ended, since scans usually just take the next entry
+    private int next;
+    // Merge buffers for sort()
+    private ZObject[] objectScratch = new ZObject[0];
+    private double[] rangeScratch = new double[0];
+
+    void clear( int theCycle, double theX, double theY ) {
+        Arrays.fill( objects, 0, size, null );
+        size = 0;
+        next = 0;
+        cycle = theCycle;
+        x = theX;
+        y = theY;
+    }
+
+    /**
+     * Whether the neighbours were gathered from here this cycle, so that their
+     * ranges can be compared with ranges measured now.
+     */
+    boolean isCurrent( int theCycle, double theX, double theY ) {
+        return cycle == theCycle && x == theX && y == theY;
+    }
+
+    void add( ZObject obj, double range ) {
+        if (size == objects.length) {
+            objects = Arrays.copyOf( objects, size * 2 );
+            ranges = Arrays.copyOf( ranges, size * 2 );
+        }
+        objects[size] = obj;
+        ranges[size++] = range;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double range( int i ) {
+        return ranges[i];
+    }
+
+    ZObject object( int i ) {
+        return objects[i];
+    }
+
+    /**
+     * Sort by range, breaking ties by id as closestObject() does, so that
+     * the order does not depend on how the world found them.
+     */
+    void sort() {
+        if (objectScratch.length < size) {
+            objectScratch = new ZObject[objects.length];
+            rangeScratch = new double[objects.length];
+        }
+        sort( 0, size );
+        Arrays.fill( objectScratch, 0, size, null );
+    }
+
+    private void sort( int from, int to ) {
+        if (to - from < 8) {
+            for (int i = from + 1; i < to; i++) {
+                ZObject obj = objects[i];
+                double range = ranges[i];
+                int j = i;
+                for ( ; j > from && isAfter( ranges[j-1], objects[j-1], range, obj ); j--) {
+                    objects[j] = objects[j-1];
+                    ranges[j] = ranges[j-1];
+                }
+                objects[j] = obj;
+                ranges[j] = range;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort( from, mid );
+        sort( mid, to );
+        if (! isAfter( ranges[mid-1], objects[mid-1], ranges[mid], objects[mid] )) return;
+        System.arraycopy( objects, from, objectScratch, from, to - from );
+        System.arraycopy( ranges, from, rangeScratch, from, to - from );
+        int left = from, right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && ! isAfter( rangeScratch[left], objectScratch[left],
+                    rangeScratch[right], objectScratch[right] ))) {
+                objects[i] = objectScratch[left];
+                ranges[i] = rangeScratch[left++];
+            } else {
+                objects[i] = objectScratch[right];
+                ranges[i] = rangeScratch[right++];
+            }
+        }
+    }
+
+    private static boolean isAfter( double range1, ZObject obj1, double range2, ZObject obj2 ) {
+        if (range1 != range2) return range1 > range2;
+        return obj1.id > obj2.id;
+    }
+
+    /**
+     * The nearest neighbour strictly farther than minRange, or null if none.
+     */
+    ZObject closestBeyond( double minRange ) {
+        // Usually the answer is at or just past where the last search ended
+        int lo = (next > 0 && ranges[next-1] > minRange) ? 0 : next;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[mid] <= minRange) lo = mid + 1;
+            else hi = mid;
+        }
+        int i = lo;
+        for ( ; i < size; i++) {
+            if (objects[i].isGone()) continue;
+            next = i + 1;
+            return objects[i];
+        }
+        next = size;
+        return null;
+    }
+}
@@ -0,0 +1,159 @@
+package org.holtz.zoe;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the turns of a cycle on a fork-join pool, by cutting the torus into tiles
+ * coloured like a checkerboard.  The tiles of one colour take their turns at once,
+ * one thread to a tile, and then the tiles of the next colour.  A tile is made wide
+ * enough that nothing a bug does in its turn can reach anything a bug in another
+ * tile of its colour reads, through what it sees or what that sees, or the cells of
+ * the <code>SpatialGrid</code> around them.  So the turns in one tile need no
+ * copies of their neighbours' bugs, and the result does not depend on how many
+ * threads run them.  Changes that reach beyond a bug's neighbourhood, like births,
+ * deaths and the counts kept by species and genes, wait for <code>Bug.settle()</code>.
+ * A bug belongs to the tile it is in when the cycle begins, so bugs move between
+ * tiles from one cycle to the next.
+ * @author Brian Holtz
+ */
+class ParallelActing extends RecursiveAction {
+    private static final long serialVersionUID = 202610180003L;
+    // Room for bugs to move and grow during a cycle
+    private static final double Allowance = 8;
+    // Tiles by colour: even or odd column, then even or odd row
+    private static final int Colours = 4;
+
+    private final World world;
+    private final int cols;
+    private final int rows;
+    private final double tileWidth;
+    private final double tileHeight;
+    // The turns of this cycle, tile by tile in the order the tiles take them
+    private Bug[] turns;
+    // The tiles in the order they take their turns, and where each one's turns begin
+    private int[] tileOrder;
+    private int[] turnsStart;
+    // The tiles of tileOrder that this task runs
+    private final int from;
+    private final int to;
+
+    private ParallelActing( World theWorld, int theCols, int theRows ) {
+        world = theWorld;
+        cols = theCols;
+        rows = theRows;
+        tileWidth = world.width / (double)cols;
+        tileHeight = world.height / (double)rows;
+        from = 0;
+        to = 0;
+    }
+
+    private ParallelActing( ParallelActing whole, int theFrom, int theTo ) {
+        world = whole.world;
+        cols = whole.cols;
+        rows = whole.rows;
+        tileWidth = whole.tileWidth;
+        tileHeight = whole.tileHeight;
+        turns = whole.turns;
+        tileOrder = whole.tileOrder;
+        turnsStart = whole.turnsStart;
+        from = theFrom;
+        to = theTo;
+    }
+
+    /**
+     * Tiles for the world as it is now, or null if it is not at least two tiles across.
+     */
+    static ParallelActing tile( World world ) {
+        BugStore store = world.bugStore;
+        double maxRadius = 0;
+        for (int slot = 0; slot < store.size; slot++) {
+            maxRadius = Math.max( maxRadius, store.diameter[slot] / 2 );
+        }
+        // A bug reads what it sees and what that sees, and searches the grid cells
+        // around it, which are less than two CellSizes across
+        double cell = 2 * SpatialGrid.CellSize;
+        double reads = Math.max( 2 * (World.VisionRange + 2 * maxRadius),
+            World.VisionRange + maxRadius + 2 * cell );
+        // It changes what it touches, and the cells that they are in
+        double writes = 2 * maxRadius + cell;
+        double minTile = reads + writes + Allowance;
+        int cols = tilesAcross( world.width, minTile );
+        int rows = tilesAcross( world.height, minTile );
+        if (cols * rows < 2) return null;
+        return new ParallelActing( world, cols, rows );
+    }
+
+    // Tiles of the same colour must not meet around the torus, so there can be
+    // one tile across, or else an even number
+    private static int tilesAcross( int span, double minTile ) {
+        int tiles = (int)(span / minTile);
+        if (tiles <= 1) return 1;
+        return tiles - tiles % 2;
+    }
+
+    /**
+     * Let every bug take its turn.
+     * @return The bugs in the order they took their turns
+     */
+    Bug[] act( List<Bug> bugs ) {
+        int numTiles = cols * rows;
+        int[] tileOf = new int[bugs.size()];
+        int[] tileCounts = new int[numTiles];
+        int b = 0;
+        for (Bug bug : bugs) {
+            int col = Math.min( cols - 1, (int)(bug.x() / tileWidth) );
+            int row = Math.min( rows - 1, (int)(bug.y() / tileHeight) );
+            tileOf[b] = row * cols + col;
+            tileCounts[tileOf[b]]++;
+            b++;
+            // Genes compile their programs when first run, so compile them before running at once
+            if (! bug.isDead()) bug.genotype.compile();
+        }
+
+        tileOrder = new int[numTiles];
+        int[] colourStart = new int[Colours + 1];
+        int next = 0;
+        for (int colour = 0; colour < Colours; colour++) {
+            colourStart[colour] = next;
+            for (int tile = 0; tile < numTiles; tile++) {
+                if (colour( tile ) == colour) tileOrder[next++] = tile;
+            }
+        }
+        colourStart[Colours] = next;
+        turnsStart = new int[numTiles + 1];
+        int[] fill = new int[numTiles];
+        for (int i = 0; i < numTiles; i++) {
+            turnsStart[i + 1] = turnsStart[i] + tileCounts[tileOrder[i]];
+            fill[tileOrder[i]] = turnsStart[i];
+        }
+        turns = new Bug[bugs.size()];
+        b = 0;
+        for (Bug bug : bugs) {
+            turns[fill[tileOf[b++]]++] = bug;
+        }
+
+        for (int colour = 0; colour < Colours; colour++) {
+            if (colourStart[colour] == colourStart[colour + 1]) continue;
+            ParallelSensing.pool().invoke(
+                new ParallelActing( this, colourStart[colour], colourStart[colour + 1] ));
+        }
+        return turns;
+    }
+
+    private int colour( int tile ) {
+        return (tile % cols) % 2 + 2 * ((tile / cols) % 2);
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            invokeAll( new ParallelActing( this, from, mid ), new ParallelActing( this, mid, to ));
+            return;
+        }
+        for (int i = turnsStart[from]; i < turnsStart[to]; i++) {
+            turns[i].next();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.holtz.zoe;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the part of a cycle that only reads the world, for every <code>Bug</code> at once
+ * on a fork-join pool, before any of them acts.  First every bug looks around, and then,
+ * once all have looked, every bug decides which of its Whens hold.  Neither step changes
+ * anything another bug reads, so the result does not depend on how many threads run it.
+ * @author Brian Holtz
+ */
+class ParallelSensing extends RecursiveAction {
+    private static final long serialVersionUID = 202610180001L;
+    // Bugs few enough for one task to sense rather than splitting them further
+    private static final int Grain = 32;
+    private static ForkJoinPool pool;
+
+    private final Bug[] bugs;
+    private final int from;
+    private final int to;
+    private final boolean deciding;
+
+    private ParallelSensing( Bug[] theBugs, int theFrom, int theTo, boolean isDeciding ) {
+        bugs = theBugs;
+        from = theFrom;
+        to = theTo;
+        deciding = isDeciding;
+    }
+
+    /**
+     * Let the first numBugs bugs sense, and then decide.
+     */
+    static void sense( Bug[] bugs, int numBugs ) {
+        pool().invoke( new ParallelSensing( bugs, 0, numBugs, false ));
+        pool().invoke( new ParallelSensing( bugs, 0, numBugs, true ));
+    }
+
+    /**
+     * The threads that bugs sense with, and act with in tiles.
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            int threads = World.SensingThreads;
+            if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+            pool = new ForkJoinPool( threads );
+        }
+        return pool;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > Grain) {
+            int mid = (from + to) >>> 1;
+            invokeAll( new ParallelSensing( bugs, from, mid, deciding ),
+                new ParallelSensing( bugs, mid, to, deciding ));
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            if (deciding) {
+                bugs[i].decide();
+            } else {
+                bugs[i].sense();
+            }
+        }
+    }
+}
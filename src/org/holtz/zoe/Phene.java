@@ -3,9 +3,10 @@ package org.holtz.zoe;
 import java.io.Serializable;
 import java.util.Random;
 
-import org.holtz.zoe.zoel.Expression;
 import org.holtz.zoe.zoel.Literal;
 import org.holtz.zoe.zoel.Operator;
+import org.holtz.zoe.zoel.Program;
+import org.holtz.zoe.zoel.ProgramHandle;
 import org.holtz.zoe.zoel.RegisterReference;
 import org.holtz.zoe.zoel.ZoelVM;
 import org.holtz.zoe.zoel.ZoelVMHost;
@@ -22,6 +23,13 @@ public class Phene implements ZoelVMHost, Serializable {
     protected Bug bug;
     // True iff zvm is executing our Do program
     protected boolean doing = false;
+    // The stamp of our When's inputs when it last ran, and what it gave
+    private long whenStamp = -1;
+    private boolean whenResult;
+    // The cycle in which whenResult was decided ahead of our turn, for when() to use
+    private transient int decidedCycle;
+    // Steps taken interpreting When that are yet to count toward composing it
+    private transient int uncountedSteps;
 
     public Phene( Bug b, Gene g ) {
         bug = b;
@@ -33,20 +41,75 @@ public class Phene implements ZoelVMHost, Serializable {
         if (! doing) {
             doing = true;
             // Restart the VM to begin Do
-            zvm = new ZoelVM( this, gene.action );
+            restart( gene.actionProgram() );
         }
         ZoelVM.Turn result = zvm.next();
         if (result == ZoelVM.Turn.Exited) doing = false;
         return result;
     }
+    // When and Do share one VM, which is reused rather than reallocated
+    private void restart( Program program ) {
+        if (zvm == null) {
+            zvm = new ZoelVM( this, program );
+        } else {
+            zvm.reset( program );
+        }
+    }
     public boolean when() {
         if (gene.when == null) return true;
+        if (decidedCycle == bug.world.cycle) {
+            // Decided while every bug was sensing the world as it began the cycle
+            decidedCycle = 0;
+            countSteps();
+            return whenResult;
+        }
         if (World.Trace ) System.out.println( bug.tracePrefix() + " When " + gene.when.toString() );
+        // A When whose inputs are unchanged gives what it gave before,
+        // unless a Do it would interrupt is still in the VM
+        long stamp = World.Trace ? -1 : bug.readStamp( gene.whenProgram() );
+        if (stamp >= 0 && stamp == whenStamp && ! doing) return whenResult;
+        whenResult = evaluateWhen();
+        whenStamp = stamp;
+        countSteps();
+        return whenResult;
+    }
+    /**
+     * Evaluate When ahead of our turn, for when() to give this cycle.  Other bugs
+     * are deciding at the same time, so only a When that just reads is run here,
+     * and nothing shared with them, like the steps counted for its Gene, is touched.
+     * @return Whether When was decided to hold
+     */
+    boolean decide() {
+        if (gene.when == null) return true;
+        if (doing || ! gene.isWhenCompiled() || ! gene.whenProgram().readOnly) return false;
+        long stamp = bug.readStamp( gene.whenProgram() );
+        if (stamp < 0 || stamp != whenStamp) {
+            whenResult = evaluateWhen();
+            whenStamp = stamp;
+        }
+        decidedCycle = bug.world.cycle;
+        return whenResult;
+    }
+    private boolean evaluateWhen() {
+        // A hot When can skip the VM, unless a Do it would interrupt is still in it
+        ProgramHandle handle = gene.whenHandle();
+        if (handle != null && ! doing && ! World.Trace && handle.maxSteps <= maxStepsPerTurn()) {
+            return handle.isTrue( this );
+        }
         // Completely restart the ZVM
-        zvm = new ZoelVM( this, gene.when );
+        restart( gene.whenProgram() );
         zvm.next(); // When is not allowed to take >1 turn
-        if (zvm.peek() == null) return false;
-        return zvm.peek().isTrue();
+        uncountedSteps += zvm.stepsTaken();
+        return zvm.peekIsTrue();
+    }
+    /**
+     * Count the steps taken interpreting When toward composing it, unless bugs are
+     * acting in tiles, when the Gene is shared with other tiles.
+     */
+    void countSteps() {
+        if (uncountedSteps == 0 || bug.world.actingInTiles) return;
+        gene.interpretedWhen( uncountedSteps, bug.genotype );
+        uncountedSteps = 0;
     }
     /*
     public double excitement() {
@@ -89,14 +152,14 @@ public class Phene implements ZoelVMHost, Serializable {
         return bug.tracePrefix();
     }
     @Override
-    public Expression implicitArgOf( Operator op ) {
-        return bug.implicitArgOf( op );
-    }
-    @Override
     public Literal get( RegisterReference arg ) {
         return bug.get( arg );
     }
     @Override
+    public double getNumber( RegisterReference arg ) {
+        return bug.getNumber( arg );
+    }
+    @Override
     public Literal get( Literal key ) {
         return bug.get( key );
     }
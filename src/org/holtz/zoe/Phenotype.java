@@ -52,6 +52,22 @@ public class Phenotype implements Serializable {
         }
     }
 
+    /**
+     * Decide ahead of our turn which Whens hold, as far as the first that does,
+     * since a turn seldom gets past it.  Any Whens not decided are evaluated in turn.
+     */
+    void decide() {
+        for (Phene phene : phenes) {
+            if (phene == activePhenes.peekFirst() || phene.decide()) return;
+        }
+    }
+
+    void countSteps() {
+        for (Phene phene : phenes) {
+            phene.countSteps();
+        }
+    }
+
     // Return the first phene in the run queue, or any higher-priority
     // phene that has become runnable.
     private Phene pickPhene2Run() {
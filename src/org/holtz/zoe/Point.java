@@ -3,6 +3,8 @@ package org.holtz.zoe;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
 
+import org.holtz.zoe.zoel.LocationLiteral;
+
 /**
  * A point in a Zoe world that can compute range and bearing to other points in that world.
  * @author Brian Holtz
@@ -15,93 +17,52 @@ public class Point extends Point2D.Double implements Serializable {
         setLocation( x, y );
     }
 
-    private double rangeThruTop( Point target, World world ) {
-        double warpedY = y + world.height;
-        if (y > target.getY()) { warpedY = y - world.height; }
-        return distance( x, warpedY, target.getX(), target.getY() );
-    }
-    
-    private double rangeThruSides( Point target, World world ) {
-        double warpedX = x + world.width;
-        if (x > target.getX()) { warpedX = x - world.width; }
-        return distance( warpedX, y, target.getX(), target.getY() );
+    /**
+     * The shortest signed displacement from one coordinate to another along
+     * an axis that wraps around after the given span.
+     */
+    public static double delta( double from, double to, double span ) {
+        double d = to - from;
+        double half = span / 2;
+        if (d > half) d -= span;
+        else if (d < - half) d += span;
+        else return d;
+        // Only points given in Zoel can lie outside the world
+        if (d > half || d < - half) d = Math.IEEEremainder( d, span );
+        return d;
     }
-    
-    private double rangeThruNWCorner( Point target, World world ) {
-        double warpedX = x + world.width;
-        double warpedY = y + world.height;
-        if (x > target.getX() && y > target.getY()) {
-            warpedX = x - world.width; 
-            warpedY = y - world.height;
-        }
-        return distance( warpedX, warpedY, target.getX(), target.getY() );
+
+    /**
+     * Range from (x1, y1) to (x2, y2) in a toroidal world, taking the shortest way round.
+     */
+    public static double range( double x1, double y1, double x2, double y2, World world ) {
+        double dx = delta( x1, x2, world.width );
+        double dy = delta( y1, y2, world.height );
+        return Math.sqrt( dx * dx + dy * dy );
     }
-    
-    private double rangeThruNECorner( Point target, World world ) {
-        double warpedX = x - world.width;
-        double warpedY = y + world.height;
-        if (x < target.getX() && y > target.getY()) {
-            warpedX = x + world.width; 
-            warpedY = y - world.height;
-        }
-        return distance( warpedX, warpedY, target.getX(), target.getY() );
+
+    /**
+     * Bearing from (x1, y1) to (x2, y2) in a toroidal world, taking the shortest way round.
+     * If range is non-null, the range is returned in its first element.
+     */
+    public static double bearing( double x1, double y1, double x2, double y2, World world, double[] range ) {
+        double dx = delta( x1, x2, world.width );
+        double dy = delta( y1, y2, world.height );
+        if (range != null) range[0] = Math.sqrt( dx * dx + dy * dy );
+        return Math.atan2( dy, dx );
     }
-    
+
     public double range( Point target, World world ) {
-        double[] range = new double[1];
-        bearing( target, world, range );
-        return range[0];
+        return range( x, y, target.getX(), target.getY(), world );
     }
 
     public double bearing( Point target, World world ) {
-        double[] range = new double[1];
-        return bearing( target, world, range );
+        return bearing( target, world, null );
     }
     
     public double bearing( Point target, World world, double[] range ) {
         if (target == null) return 0;
-        double targetX = target.getX();
-        double targetY = target.getY();
-        double shortestRange = distance( x, y, targetX, targetY );
-        double bearing = Math.atan2( targetY - y, targetX - x );
-        double anotherRange = rangeThruTop( target, world );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedY = y + world.height;
-            if (y > targetY) { warpedY = y - world.height; }
-            bearing = Math.atan2( targetY - warpedY, targetX - x );
-        }
-        anotherRange = rangeThruSides( target, world );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x + world.width;
-            if (x > targetX) { warpedX = x - world.width; }
-            bearing = Math.atan2( targetY - y, targetX - warpedX );
-        }
-        anotherRange = rangeThruNECorner( target, world );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x - world.width;
-            double warpedY = y + world.height;
-            if (x < targetX && y > targetY) {
-                warpedX = x + world.width; 
-                warpedY = y - world.height;
-            }
-            bearing = Math.atan2( targetY - warpedX, targetX - warpedY );
-        }
-        anotherRange = rangeThruNWCorner( target, world );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x + world.width;
-            double warpedY = y + world.height;
-            if (x > targetX && y > targetY) {
-                warpedX = x - world.width; 
-                warpedY = y - world.height;
-            }
-            bearing = Math.atan2( targetY - warpedX, targetX - warpedY );
-        }
-        range[0] = shortestRange;
-        return bearing;
+        return bearing( x, y, target.getX(), target.getY(), world, range );
     }
 
     public static double normalize(double heading) {
@@ -115,15 +76,9 @@ public class Point extends Point2D.Double implements Serializable {
     }
 
     public static Point parse( String text ) {
-        if (text == null) return null;
-        if (! text.startsWith("{ x=")) return null;
-        text = text.replaceFirst( "\\{ x=", "" );
-        text = text.replaceFirst( ", y=", " " );
-        text = text.replaceFirst( " }", "" );
-        String[] strings = text.split( " " );
-        double x = java.lang.Double.parseDouble( strings[0] );
-        double y = java.lang.Double.parseDouble( strings[1] );
-        return new Point( x, y );
+        LocationLiteral location = LocationLiteral.parse( text );
+        if (location == null) return null;
+        return new Point( location.x, location.y );
     }
     
     public String toString() {
@@ -0,0 +1,59 @@
+package org.holtz.zoe;
+
+import org.holtz.zoe.zoel.Literal;
+import org.holtz.zoe.zoel.Register;
+import org.holtz.zoe.zoel.RegisterReference;
+
+/**
+ * The registers a <code>Bug</code> has read during its turn, each computed when first
+ * read, so that genes testing the same register again just look it up.
+ * Anything that could change what a register reads, like sensing or acting,
+ * invalidates the whole snapshot at once.
+ * @author Brian Holtz
+ */
+class RegisterSnapshot {
+    private static final int NumRegisters = Register.values().length;
+
+    // Me registers first, then It registers
+    private final double[] numbers = new double[2 * NumRegisters];
+    private final Literal[] literals = new Literal[2 * NumRegisters];
+    // The generation in which each value was read, so invalidating needs no clearing
+    private final long[] numberGenerations = new long[2 * NumRegisters];
+    private final long[] literalGenerations = new long[2 * NumRegisters];
+    private long generation = 1;
+
+    void invalidate() {
+        generation++;
+    }
+
+    int index( RegisterReference ref ) {
+        int i = ref.reg.ordinal();
+        return (ref.who == RegisterReference.Whose.It) ? i + NumRegisters : i;
+    }
+
+    boolean hasNumber( int i ) {
+        return numberGenerations[i] == generation;
+    }
+
+    double number( int i ) {
+        return numbers[i];
+    }
+
+    void putNumber( int i, double val ) {
+        numbers[i] = val;
+        numberGenerations[i] = generation;
+    }
+
+    boolean hasLiteral( int i ) {
+        return literalGenerations[i] == generation;
+    }
+
+    Literal literal( int i ) {
+        return literals[i];
+    }
+
+    void putLiteral( int i, Literal val ) {
+        literals[i] = val;
+        literalGenerations[i] = generation;
+    }
+}
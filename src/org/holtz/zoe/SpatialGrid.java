@@ -0,0 +1,173 @@
+package org.holtz.zoe;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of cells tiling a toroidal <code>World</code>, so that proximity
+ * queries need only visit the cells around a <code>Bug</code>.
+ * A <code>Bug</code> migrates from one cell to another only when a move carries it
+ * across a cell boundary, so the grid never has to be rebuilt during a cycle.
+ * Cell coordinates wrap around the edges of the world just as bugs do.
+ * Each cell is divided into <code>MassBands</code>, so a search skips the bugs
+ * that are too small for the searcher to see without looking at them.
+ * @author Brian Holtz
+ */
+class SpatialGrid implements SpatialIndex {
+    // Cells are at least this many pixels on a side
+    static final int CellSize = 60;
+    private static final int InitialCellCapacity = 4;
+
+    private final World world;
+    // Whether bugs are filed under their referencePosition
+    private final boolean reference;
+    private int cols;
+    private int rows;
+    private double cellWidth;
+    private double cellHeight;
+    // Bugs in each band of each cell, indexed by (row * cols + col) * MassBands.Count + band.
+    // Each Bug knows its bucket and its slot in that bucket, so leaving is O(1).
+    private Bug[][] buckets;
+    private int[] counts;
+    // For each cell, a bit for each band that holds any bugs
+    private int[] bandMasks;
+    // No bug in the grid has a radius bigger than this
+    private double maxRadius;
+
+    SpatialGrid( World theWorld, boolean isReference ) {
+        world = theWorld;
+        reference = isReference;
+        resize();
+    }
+
+    public void resize() {
+        cols = Math.max( 1, world.width / CellSize );
+        rows = Math.max( 1, world.height / CellSize );
+        cellWidth = world.width / (double)cols;
+        cellHeight = world.height / (double)rows;
+        buckets = new Bug[cols * rows * MassBands.Count][];
+        counts = new int[cols * rows * MassBands.Count];
+        bandMasks = new int[cols * rows];
+        maxRadius = 0;
+        for (Bug bug : world.bugs) {
+            IndexPosition.of( bug, reference ).filed = false;
+            if (! bug.isGone()) add( bug );
+        }
+    }
+
+    int col( double x ) {
+        int col = (int)(x / cellWidth);
+        if (col >= cols) return cols - 1;
+        if (col < 0) return 0;
+        return col;
+    }
+
+    int row( double y ) {
+        int row = (int)(y / cellHeight);
+        if (row >= rows) return rows - 1;
+        if (row < 0) return 0;
+        return row;
+    }
+
+    // Cell index of a column and row, either of which may lie off the edge of the world.
+    int cell( int col, int row ) {
+        return Math.floorMod( row, rows ) * cols + Math.floorMod( col, cols );
+    }
+
+    int cellOf( Bug bug ) {
+        return row( bug.y() ) * cols + col( bug.x() );
+    }
+
+    private int bucketOf( Bug bug ) {
+        return cellOf( bug ) * MassBands.Count + MassBands.of( bug.mass() );
+    }
+
+    public void add( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (pos.filed) return;
+        if (bug.radius() > maxRadius) maxRadius = bug.radius();
+        int bucket = bucketOf( bug );
+        Bug[] bucketBugs = buckets[bucket];
+        if (bucketBugs == null) {
+            bucketBugs = buckets[bucket] = new Bug[InitialCellCapacity];
+        } else if (counts[bucket] == bucketBugs.length) {
+            bucketBugs = buckets[bucket] = Arrays.copyOf( bucketBugs, bucketBugs.length * 2 );
+        }
+        pos.cell = bucket;
+        pos.slot = counts[bucket];
+        bucketBugs[counts[bucket]++] = bug;
+        bandMasks[bucket / MassBands.Count] |= 1 << (bucket % MassBands.Count);
+        pos.filed = true;
+    }
+
+    public void remove( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (! pos.filed) return;
+        int bucket = pos.cell;
+        Bug[] bucketBugs = buckets[bucket];
+        int last = --counts[bucket];
+        // Fill the hole with the bucket's last bug
+        Bug moved = bucketBugs[last];
+        bucketBugs[pos.slot] = moved;
+        IndexPosition.of( moved, reference ).slot = pos.slot;
+        bucketBugs[last] = null;
+        if (last == 0) bandMasks[bucket / MassBands.Count] &= ~(1 << (bucket % MassBands.Count));
+        pos.filed = false;
+    }
+
+    // Called whenever a bug moves or changes size, but only does work
+    // when it changes cells or mass bands
+    public void move( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (! pos.filed) return;
+        if (bug.radius() > maxRadius) maxRadius = bug.radius();
+        if (bucketOf( bug ) == pos.cell) return;
+        remove( bug );
+        add( bug );
+    }
+
+    // Searches rings of cells outward from the searching bug, nearest ring first,
+    // and stops as soon as no cell in the next ring could hold anything nearer.
+    // So cost depends on how crowded the neighbourhood is, not on maxRange.
+    public void search( SpatialSearch search ) {
+        Bug from = search.from;
+        int centerCol = col( from.x() );
+        int centerRow = row( from.y() );
+        // Offsets farther than these would wrap around and revisit cells
+        int west = (cols - 1) / 2;
+        int east = cols / 2;
+        int north = (rows - 1) / 2;
+        int south = rows / 2;
+        int lastRing = Math.max( Math.max( west, east ), Math.max( north, south ));
+        double cellSpan = Math.min( cellWidth, cellHeight );
+        for (int ring = 0; ring <= lastRing; ring++) {
+            // Nothing in this ring can be nearer than this
+            double ringRange = (ring - 1) * cellSpan - maxRadius;
+            if (ringRange > search.stopRange) break;
+            for (int dy = Math.max( -ring, -north ); dy <= Math.min( ring, south ); dy++) {
+                int row = centerRow + dy;
+                if (dy == -ring || dy == ring) {
+                    // Top or bottom edge of the ring
+                    for (int dx = Math.max( -ring, -west ); dx <= Math.min( ring, east ); dx++) {
+                        visit( search, cell( centerCol + dx, row ));
+                    }
+                } else {
+                    // Left and right sides of the ring
+                    if (ring <= west) visit( search, cell( centerCol - ring, row ));
+                    if (ring <= east) visit( search, cell( centerCol + ring, row ));
+                }
+            }
+        }
+    }
+
+    private void visit( SpatialSearch search, int cell ) {
+        int bands = bandMasks[cell] & search.visibleBands;
+        while (bands != 0) {
+            int bucket = cell * MassBands.Count + Integer.numberOfTrailingZeros( bands );
+            Bug[] bucketBugs = buckets[bucket];
+            for (int i = 0; i < counts[bucket]; i++) {
+                search.consider( bucketBugs[i] );
+            }
+            bands &= bands - 1;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.holtz.zoe;
+
+/**
+ * Where the bugs of a <code>World</code> are, organized so that a <code>Bug</code>
+ * can find what it can see without checking every other bug.
+ * Which index a world uses is set by the <code>SpatialIndexType</code> property.
+ * @author Brian Holtz
+ */
+interface SpatialIndex {
+    /**
+     * Re-tile to the current size of the world and refile every bug.
+     */
+    void resize();
+
+    void add( Bug bug );
+
+    void remove( Bug bug );
+
+    /**
+     * Called whenever a bug moves.
+     */
+    void move( Bug bug );
+
+    /**
+     * Offer the search every bug that might be nearer than its stopRange,
+     * which the search may lower as it goes.
+     */
+    void search( SpatialSearch search );
+}
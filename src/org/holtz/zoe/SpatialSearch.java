@@ -0,0 +1,147 @@
+package org.holtz.zoe;
+
+/**
+ * A search of a <code>SpatialIndex</code> for objects that a <code>Bug</code> can see.
+ * Every index offers its candidates to <code>consider()</code>, so all indexes
+ * apply exactly the same test of what is visible and in range.
+ * @author Brian Holtz
+ */
+abstract class SpatialSearch {
+    final Bug from;
+    // Where the world keeps the state of every bug an index can hold
+    final BugStore store;
+    final double width;
+    final double height;
+    final double maxRange;
+    final double minRange;
+    // Mass bands that might hold objects the searching bug can see
+    final int visibleBands;
+    // Objects beyond this range, or at it and losing the tie, are of no interest
+    double stopRange;
+
+    SpatialSearch( Bug theFrom, double theMaxRange, double theMinRange ) {
+        from = theFrom;
+        store = theFrom.world.bugStore;
+        width = theFrom.world.width;
+        height = theFrom.world.height;
+        maxRange = theMaxRange;
+        minRange = theMinRange;
+        visibleBands = MassBands.visibleTo( theFrom );
+        stopRange = theMaxRange;
+    }
+
+    abstract void found( Bug obj, double range );
+
+    // A fresh search with the same question, for checking one index against another
+    abstract SpatialSearch again();
+
+    // Whether another index gave the same answer, or else a description of the difference
+    abstract String disagreement( SpatialSearch other );
+
+    void consider( Bug obj ) {
+        // Bugs in another store have left the world
+        if (obj == from || obj.store != store) return;
+        int slot = obj.slot;
+        double radius = store.diameter[slot] / 2;
+        // Gone
+        if (radius <= 0) return;
+
+        // Shortest way round the torus, as in ZObject.range()
+        double dx = Point.delta( from.x(), store.x[slot], width );
+        double dy = Point.delta( from.y(), store.y[slot], height );
+        double distanceSquared = dx * dx + dy * dy;
+        // Skip anything whose nearest edge is out of range
+        // without taking a square root
+        double reach = stopRange + radius;
+        if (distanceSquared > reach * reach) return;
+
+        if (! from.canSee( obj )) return;
+
+        double range = Math.max( 0, Math.sqrt( distanceSquared ) - radius );
+        if (range <= minRange) return;
+        if (range > stopRange) return;
+        if (range == stopRange && ! winsTie( obj )) return;
+
+        found( obj, range );
+    }
+
+    // Whether an object at exactly stopRange is still of interest
+    boolean winsTie( Bug obj ) {
+        return false;
+    }
+
+    /**
+     * Finds the nearest object beyond minRange.
+     */
+    static class Closest extends SpatialSearch {
+        ZObject closest = null;
+
+        Closest( Bug theFrom, double maxRange, double minRange ) {
+            super( theFrom, maxRange, minRange );
+        }
+
+        void found( Bug obj, double range ) {
+            closest = obj;
+            stopRange = range;
+        }
+
+        // Break ties by id, so every index finds the same object
+        boolean winsTie( Bug obj ) {
+            return closest != null && obj.id < closest.id;
+        }
+
+        SpatialSearch again() {
+            return new Closest( from, maxRange, minRange );
+        }
+
+        String disagreement( SpatialSearch other ) {
+            ZObject otherClosest = ((Closest)other).closest;
+            if (closest == otherClosest) return null;
+            return "closest is " + describe( closest ) + " vs. " + describe( otherClosest );
+        }
+
+        private String describe( ZObject obj ) {
+            if (obj == null) return "nothing";
+            return obj.id + " at range " + from.range( obj );
+        }
+    }
+
+    /**
+     * Gathers everything within maxRange into a cursor.
+     */
+    static class Neighbours extends SpatialSearch {
+        final NeighbourCursor cursor;
+
+        Neighbours( Bug theFrom, double maxRange, NeighbourCursor theCursor ) {
+            super( theFrom, maxRange, -1 );
+            cursor = theCursor;
+        }
+
+        void found( Bug obj, double range ) {
+            cursor.add( obj, range );
+        }
+
+        SpatialSearch again() {
+            NeighbourCursor otherCursor = new NeighbourCursor();
+            otherCursor.clear( cursor.cycle, from.x(), from.y() );
+            return new Neighbours( from, maxRange, otherCursor );
+        }
+
+        String disagreement( SpatialSearch other ) {
+            NeighbourCursor otherCursor = ((Neighbours)other).cursor;
+            cursor.sort();
+            otherCursor.sort();
+            if (cursor.size() != otherCursor.size()) {
+                return cursor.size() + " neighbours vs. " + otherCursor.size();
+            }
+            for (int i = 0; i < cursor.size(); i++) {
+                if (cursor.object( i ) != otherCursor.object( i )) {
+                    return "neighbour " + i + " is " + cursor.object( i ).id + " at range "
+                        + cursor.range( i ) + " vs. " + otherCursor.object( i ).id
+                        + " at range " + otherCursor.range( i );
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.holtz.zoe;
+
+import java.util.Random;
+
+/**
+ * A SplitMix generator, for giving each <code>Bug</code> a stream of random numbers
+ * of its own.  A stream is seeded from the world's seed, the bug's id and the cycle,
+ * so what a bug draws does not depend on what other bugs drew before it.
+ * Unlike <code>java.util.Random</code> it keeps its state in a plain field,
+ * so drawing a number takes no atomic update.
+ * @author Brian Holtz
+ */
+class SplitMix extends Random {
+    private static final long serialVersionUID = 202610180002L;
+    private static final long Golden = 0x9E3779B97F4A7C15L;
+
+    // Set by Random's constructor, so it must have no initializer of its own
+    private long state;
+
+    /**
+     * Start the stream for one object in one cycle of a world.
+     */
+    void reseed( long seed, long id, long cycle ) {
+        state = mix( mix( seed + Golden * id ) + Golden * cycle );
+    }
+
+    @Override
+    public void setSeed( long seed ) {
+        state = seed;
+    }
+
+    @Override
+    public long nextLong() {
+        state += Golden;
+        return mix( state );
+    }
+
+    @Override
+    protected int next( int bits ) {
+        return (int)(nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    private static long mix( long z ) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,270 @@
+package org.holtz.zoe;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over a toroidal <code>World</code>, which subdivides only where bugs
+ * are crowded.  Unlike a uniform grid it keeps searches cheap when the population
+ * is clustered, e.g. when plankton pile up at the midpoint of the world.
+ * Leaves split when they overflow and merge back when their bugs leave,
+ * so the tree follows the population without ever being rebuilt.
+ * Each node counts its bugs by <code>MassBands</code>, so a search passes over
+ * subtrees holding only bugs too small for the searcher to see.
+ * @author Brian Holtz
+ */
+class ToroidalQuadtree implements SpatialIndex {
+    private static final int LeafCapacity = 8;
+    // Bugs piled on the same spot must not split the tree forever
+    private static final int MaxDepth = 16;
+
+    private final World world;
+    // Whether bugs are filed under their referencePosition
+    private final boolean reference;
+    private Node root;
+    // Nodes by number, so that a bug's IndexPosition can name its leaf
+    private Node[] nodes;
+    private int numNodes;
+    private int[] freeNodes;
+    private int numFreeNodes;
+    // No bug in the tree has a radius bigger than this
+    private double maxRadius;
+
+    private static class Node {
+        final int number;
+        final Node parent;
+        final int depth;
+        final double minX, minY, maxX, maxY;
+        // Null unless this node has been split
+        Node[] children;
+        // Bugs in this leaf
+        Bug[] bugs = new Bug[LeafCapacity + 1];
+        int count;
+        // Bugs in this node and all its descendants, in all bands and in each
+        int total;
+        final int[] bandTotals = new int[MassBands.Count];
+        // A bit for each band with a nonzero total
+        int bandMask;
+
+        Node( int theNumber, Node theParent, double x0, double y0, double x1, double y1 ) {
+            number = theNumber;
+            parent = theParent;
+            depth = (theParent == null) ? 0 : theParent.depth + 1;
+            minX = x0;
+            minY = y0;
+            maxX = x1;
+            maxY = y1;
+        }
+
+        boolean contains( double x, double y ) {
+            return x >= minX && x < maxX && y >= minY && y < maxY;
+        }
+
+        Node childFor( double x, double y ) {
+            int quadrant = 0;
+            if (x >= (minX + maxX) / 2) quadrant += 1;
+            if (y >= (minY + maxY) / 2) quadrant += 2;
+            return children[quadrant];
+        }
+    }
+
+    ToroidalQuadtree( World theWorld, boolean isReference ) {
+        world = theWorld;
+        reference = isReference;
+        resize();
+    }
+
+    public void resize() {
+        nodes = new Node[16];
+        numNodes = 0;
+        freeNodes = new int[16];
+        numFreeNodes = 0;
+        maxRadius = 0;
+        root = newNode( null, 0, 0, world.width, world.height );
+        for (Bug bug : world.bugs) {
+            IndexPosition.of( bug, reference ).filed = false;
+            if (! bug.isGone()) add( bug );
+        }
+    }
+
+    private Node newNode( Node parent, double x0, double y0, double x1, double y1 ) {
+        int number;
+        if (numFreeNodes > 0) {
+            number = freeNodes[--numFreeNodes];
+        } else {
+            if (numNodes == nodes.length) nodes = Arrays.copyOf( nodes, numNodes * 2 );
+            number = numNodes++;
+        }
+        Node node = new Node( number, parent, x0, y0, x1, y1 );
+        nodes[number] = node;
+        return node;
+    }
+
+    private void freeNode( Node node ) {
+        nodes[node.number] = null;
+        if (numFreeNodes == freeNodes.length) {
+            freeNodes = Arrays.copyOf( freeNodes, numFreeNodes * 2 );
+        }
+        freeNodes[numFreeNodes++] = node.number;
+    }
+
+    public void add( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (pos.filed) return;
+        if (bug.radius() > maxRadius) maxRadius = bug.radius();
+        Node leaf = root;
+        while (leaf.children != null) leaf = leaf.childFor( bug.x(), bug.y() );
+        pos.band = MassBands.of( bug.mass() );
+        file( leaf, bug );
+        for (Node node = leaf; node != null; node = node.parent) count( node, pos.band, 1 );
+        if (leaf.count > LeafCapacity && leaf.depth < MaxDepth) split( leaf );
+    }
+
+    private void file( Node leaf, Bug bug ) {
+        if (leaf.count == leaf.bugs.length) {
+            leaf.bugs = Arrays.copyOf( leaf.bugs, leaf.count * 2 );
+        }
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        pos.cell = leaf.number;
+        pos.slot = leaf.count;
+        pos.filed = true;
+        leaf.bugs[leaf.count++] = bug;
+    }
+
+    private static void count( Node node, int band, int change ) {
+        node.total += change;
+        node.bandTotals[band] += change;
+        if (node.bandTotals[band] == 0) {
+            node.bandMask &= ~(1 << band);
+        } else {
+            node.bandMask |= 1 << band;
+        }
+    }
+
+    private void split( Node leaf ) {
+        double midX = (leaf.minX + leaf.maxX) / 2;
+        double midY = (leaf.minY + leaf.maxY) / 2;
+        leaf.children = new Node[] {
+            newNode( leaf, leaf.minX, leaf.minY, midX, midY ),
+            newNode( leaf, midX, leaf.minY, leaf.maxX, midY ),
+            newNode( leaf, leaf.minX, midY, midX, leaf.maxY ),
+            newNode( leaf, midX, midY, leaf.maxX, leaf.maxY ),
+        };
+        for (int i = 0; i < leaf.count; i++) {
+            Bug bug = leaf.bugs[i];
+            Node child = leaf.childFor( bug.x(), bug.y() );
+            file( child, bug );
+            count( child, IndexPosition.of( bug, reference ).band, 1 );
+        }
+        leaf.bugs = null;
+        leaf.count = 0;
+        // All the bugs may have landed in the same quadrant
+        for (Node child : leaf.children) {
+            if (child.count > LeafCapacity && child.depth < MaxDepth) split( child );
+        }
+    }
+
+    public void remove( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (! pos.filed) return;
+        Node leaf = nodes[pos.cell];
+        int last = --leaf.count;
+        // Fill the hole with the leaf's last bug
+        Bug moved = leaf.bugs[last];
+        leaf.bugs[pos.slot] = moved;
+        IndexPosition.of( moved, reference ).slot = pos.slot;
+        leaf.bugs[last] = null;
+        pos.filed = false;
+        for (Node node = leaf; node != null; node = node.parent) count( node, pos.band, -1 );
+        // Merge the largest subtree that has become sparse back into one leaf
+        Node sparse = null;
+        for (Node node = leaf.parent; node != null && node.total <= LeafCapacity / 2; node = node.parent) {
+            sparse = node;
+        }
+        if (sparse != null) merge( sparse );
+    }
+
+    private void merge( Node node ) {
+        Bug[] bugs = new Bug[LeafCapacity + 1];
+        int count = 0;
+        for (Node child : node.children) count = collect( child, bugs, count );
+        node.children = null;
+        node.bugs = new Bug[LeafCapacity + 1];
+        node.count = 0;
+        for (int i = 0; i < count; i++) file( node, bugs[i] );
+    }
+
+    // Gather the bugs under a node, freeing the node and its descendants
+    private int collect( Node node, Bug[] bugs, int count ) {
+        if (node.children != null) {
+            for (Node child : node.children) count = collect( child, bugs, count );
+        } else {
+            for (int i = 0; i < node.count; i++) bugs[count++] = node.bugs[i];
+        }
+        freeNode( node );
+        return count;
+    }
+
+    // Called whenever a bug moves or changes size, but only does work
+    // when it leaves its leaf or changes mass bands
+    public void move( Bug bug ) {
+        IndexPosition pos = IndexPosition.of( bug, reference );
+        if (! pos.filed) return;
+        if (bug.radius() > maxRadius) maxRadius = bug.radius();
+        if (nodes[pos.cell].contains( bug.x(), bug.y() )
+                && MassBands.of( bug.mass() ) == pos.band) return;
+        remove( bug );
+        add( bug );
+    }
+
+    public void search( SpatialSearch search ) {
+        search( root, search );
+    }
+
+    // Visits the child nearest the searching bug first, so that a search
+    // for the closest object lowers its stopRange as early as possible.
+    private void search( Node node, SpatialSearch search ) {
+        if ((node.bandMask & search.visibleBands) == 0) return;
+        double x = search.from.x();
+        double y = search.from.y();
+        double gapX = gap( x, node.minX, node.maxX, search.width );
+        double gapY = gap( y, node.minY, node.maxY, search.height );
+        // Nothing in this node can be nearer than this
+        double reach = search.stopRange + maxRadius;
+        if (gapX * gapX + gapY * gapY > reach * reach) return;
+        if (node.children == null) {
+            for (int i = 0; i < node.count; i++) search.consider( node.bugs[i] );
+            return;
+        }
+        Node nearest = node.childFor( x, y );
+        if (! node.contains( x, y )) {
+            // Approach from outside the node, via its nearest corner
+            nearest = node.childFor(
+                clamp( x, node.minX, node.maxX, search.width ),
+                clamp( y, node.minY, node.maxY, search.height ));
+        }
+        search( nearest, search );
+        for (Node child : node.children) {
+            if (child != nearest) search( child, search );
+        }
+    }
+
+    // Distance round the torus from p to the nearest point of [min, max)
+    private static double gap( double p, double min, double max, double span ) {
+        if (p >= min && p < max) return 0;
+        double toMin = min - p;
+        if (toMin < 0) toMin += span;
+        double fromMax = p - max;
+        if (fromMax < 0) fromMax += span;
+        return Math.min( toMin, fromMax );
+    }
+
+    // The point of [min, max) nearest p, going round the torus
+    private static double clamp( double p, double min, double max, double span ) {
+        if (p >= min && p < max) return p;
+        double toMin = min - p;
+        if (toMin < 0) toMin += span;
+        double fromMax = p - max;
+        if (fromMax < 0) fromMax += span;
+        return (toMin <= fromMax) ? min : Math.nextDown( max );
+    }
+}
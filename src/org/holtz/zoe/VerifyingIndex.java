@@ -0,0 +1,56 @@
+package org.holtz.zoe;
+
+/**
+ * A <code>SpatialIndex</code> that answers every search with one index and
+ * asks a reference index the same question, reporting any disagreement.
+ * Enabled by setting the <code>SpatialIndexReference</code> property.
+ * @author Brian Holtz
+ */
+class VerifyingIndex implements SpatialIndex {
+    private final World world;
+    private final SpatialIndex index;
+    private final SpatialIndex referenceIndex;
+    private int disagreements;
+
+    VerifyingIndex( World theWorld, SpatialIndex theIndex, SpatialIndex theReferenceIndex ) {
+        world = theWorld;
+        index = theIndex;
+        referenceIndex = theReferenceIndex;
+    }
+
+    public void resize() {
+        index.resize();
+        referenceIndex.resize();
+    }
+
+    public void add( Bug bug ) {
+        index.add( bug );
+        referenceIndex.add( bug );
+    }
+
+    public void remove( Bug bug ) {
+        index.remove( bug );
+        referenceIndex.remove( bug );
+    }
+
+    public void move( Bug bug ) {
+        index.move( bug );
+        referenceIndex.move( bug );
+    }
+
+    public void search( SpatialSearch search ) {
+        index.search( search );
+        SpatialSearch check = search.again();
+        referenceIndex.search( check );
+        String disagreement = search.disagreement( check );
+        if (disagreement == null) return;
+        disagreements++;
+        System.err.println( "Cycle " + world.cycle + ", bug " + search.from.id + ": "
+            + name( index ) + " vs. " + name( referenceIndex ) + ": " + disagreement
+            + " (" + disagreements + " disagreements so far)" );
+    }
+
+    private static String name( SpatialIndex index ) {
+        return index.getClass().getSimpleName();
+    }
+}
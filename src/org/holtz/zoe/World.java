@@ -8,8 +8,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Observable;
 import java.util.Properties;
 import java.util.Random;
@@ -19,6 +17,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
+
+import org.holtz.zoe.zoel.OpcodeProfile;
 /**
  * A Zoe universe, with all the parameters to control and replay its evolution.
  * @author Brian Holtz
@@ -76,6 +76,17 @@ public class World extends Observable implements Serializable {
     public static boolean ChildrenOfAMatingShareGenotype = true;
     public static int AgeToDataStackLimit = 100;
     public static int NewbornDataStackLimit = 10;
+    // Every bug senses and evaluates its Whens, all in parallel, before any bug acts,
+    // instead of each sensing a world changed by the bugs that went before it
+    public static boolean SenseBeforeActing = false;
+    // Each bug makes its random choices from a stream of its own, seeded from the world's
+    // seed, its id and the cycle, so they do not depend on the order bugs are run in.
+    // A seed replays differently with it than without it.
+    public static boolean RandomStreamPerBug = false;
+    // Bugs take their turns in tiles of the world, many tiles at once, each tile far enough
+    // from the others acting with it that none can affect another.  Needs SenseBeforeActing,
+    // RandomStreamPerBug and a Grid, and a world at least two tiles across.
+    public static boolean ActInTiles = false;
     //
     // Constants controlling how the world looks
     // These constants do not affect world's outcome
@@ -84,6 +95,34 @@ public class World extends Observable implements Serializable {
     public static int MinMilliSecsPerTurn = 1;
     // Colors that sum too high are too faint
     public static int MaxColorMutation = 90;
+    // How bugs find what they can see: Grid, Quadtree or BruteForce
+    public static String SpatialIndexType = "Grid";
+    // If set, every search is repeated with this index and any disagreement reported
+    public static String SpatialIndexReference = "";
+    // A When condition is composed into a MethodHandle once its Gene has taken this many
+    // interpreted steps in it, while carried by a species with at least this many living
+    public static int ComposeWhenMinSteps = 20000;
+    public static int ComposeWhenMinLiving = 20;
+    // Threads that bugs sense with when SenseBeforeActing, and act with when ActInTiles,
+    // or 0 for one per core
+    public static int SensingThreads = 0;
+    //
+    // Constants controlling headless runs by ZoeRunner
+    // Zero cycles and zero seconds mean run until every bug is dead
+    //
+    public static int RunCycles = 0;
+    public static int RunSeconds = 0;
+    public static int MetricsEveryCycles = 1000;
+    // Zero means save only at the end of the run
+    public static int SnapshotEveryCycles = 0;
+    public static String SnapshotDir = "snapshots";
+    // How many of the most common runs of instructions, as counted by OpcodeProfile,
+    // to list in opcodes.txt at the end of a run, or 0 for none
+    public static int OpcodeProfileRuns = 0;
+    // Worlds that ZoeEnsemble runs at once, seeded Seed, Seed+1, ...,
+    // and the threads to run them on, or 0 for one per core
+    public static int EnsembleSize = 8;
+    public static int EnsembleThreads = 0;
     //
     // Convenient derived constants
     //
@@ -96,34 +135,63 @@ public class World extends Observable implements Serializable {
     public int width = Width;
     public int height = Height;
     public ArrayList<Bug> bugs = new ArrayList<Bug>();
+    // Physical state of every bug in the bugs list
+    BugStore bugStore = new BugStore( 64 );
     public double energyEverPhotosynthesized = 0;
     public int cycle = 1; // So bugs that spawn at cycle % N won't spawn immediately
     public Date start = new Date();
     public long seed;
-    // All choices use world.random, so the world can be replayed
-    // using the initial seed -- modulo user intervention.
+    // All choices use world.random, or streams seeded from seed, so the world
+    // can be replayed using the initial seed -- modulo user intervention.
     public java.util.Random random;
     private ArrayList<Bug> newBugs;
+    // Ids handed out so far.  Saved with the world, so that a resumed world
+    // goes on giving its bugs and species the ids it would have.
+    private int numBugsEverCreated = 0;
+    private int numSpeciesEverCreated = Genotype.AlgaeId;
+    // Our own Algae, so that worlds in one process never share a species or its counts
+    private final Genotype algae = Genotype.algae();
     private Iterator<Bug> bug2RunItr;
-    
-    // Spatial grid for efficient proximity queries
-    // Grid cell size should be roughly 2x VisionRange for optimal performance
-    private static final int GRID_CELL_SIZE = 60; // Adjust based on VisionRange (30)
-    private Map<Integer, List<Bug>> spatialGrid = new HashMap<Integer, List<Bug>>();
-    private boolean spatialGridDirty = true;
-    private int lastGridUpdateCycle = -1;
+    // Index for efficient proximity queries, which bugs update as they move.
+    // Not saved with the world, but rebuilt on first use.
+    private transient SpatialIndex spatialIndex;
+    // What each bug might touch this cycle
+    private transient ContactBroadphase contacts;
+    // True while bugs are acting in tiles, when changes that reach beyond
+    // a bug's neighbourhood wait until all are done
+    transient boolean actingInTiles;
+    private transient boolean warnedAboutTiles;
 
     public static Properties props = null;
     private static String propsFileName = "Zoe.properties";
 
     public World( Dimension size ) {
+        this( size, 0 );
+    }
+
+    /**
+     * @param theSeed The seed to replay, or 0 to use Seed
+     */
+    public World( Dimension size, long theSeed ) {
         initProperties();
         resize( size );
-        seed = Seed;
-        if (seed == 0) seed = System.currentTimeMillis() % 1000;
+        seed = (theSeed != 0) ? theSeed : Seed;
+        if (seed == 0) {
+            seed = clockSeed();
+            System.out.println( "World seeded from the clock, replayable with Seed=" + seed );
+        }
         random = new java.util.Random( seed );
     }
 
+    /**
+     * A seed from all of the clock's low bits, so that two runs are unlikely to share
+     * one, kept to an int that Seed can replay, and never the 0 that means the clock.
+     */
+    public static int clockSeed() {
+        int seed = (int) System.currentTimeMillis();
+        return (seed != 0) ? seed : 1;
+    }
+
     public void loadRandomBugs() {
         int initialBugCount = height * width / PixelsPerInitialBug;
         // panel size can be inaccurate when run in browser
@@ -134,7 +202,7 @@ public class World extends Observable implements Serializable {
     }
 
     public void loadFounderBugs() {
-        for (Genotype founderSpecies : Genotype.getFounders()) {
+        for (Genotype founderSpecies : Genotype.loadFounders( this )) {
             new Bug( this, founderSpecies);
         }       
     }
@@ -155,6 +223,13 @@ public class World extends Observable implements Serializable {
         } catch (IOException e) {
             System.err.println( propsFileName + ": " + e.toString() );
         }
+        applyProperties();
+    }
+
+    /**
+     * Set each World constant named in props, e.g. after adding to props from a command line.
+     */
+    public static void applyProperties() {
         for ( Field field : World.class.getFields() ) {
             Class<?> fieldClass = field.getType();
             String prop = field.getName();
@@ -171,6 +246,9 @@ public class World extends Observable implements Serializable {
                 if (fieldClass == Boolean.TYPE) {
                     field.set( null, Boolean.parseBoolean( propVal ));
                 }
+                if (fieldClass == String.class) {
+                    field.set( null, propVal.trim() );
+                }
             } catch (Exception e) {
                 System.err.println( "Cannot read/set World property \"" + prop
                     + "=" + propVal + "\" because: " + e.toString() );
@@ -187,6 +265,10 @@ public class World extends Observable implements Serializable {
     }
 
     public double brownianMotion() {
+        return brownianMotion( random );
+    }
+
+    public double brownianMotion( Random random ) {
         return BrownianMotionPerCycle / 2 - random.nextFloat() * BrownianMotionPerCycle;
     }
 
@@ -202,7 +284,9 @@ public class World extends Observable implements Serializable {
         // TODO If we add bugs mid-cycle, bugs list gets a ConcurrentModification exception
         if (bug2RunItr == null) {
             bugs.add( newBug );
-            spatialGridDirty = true; // Mark grid as needing update
+            bugStore.admit( newBug );
+            spatialIndex().add( newBug );
+            if (contacts != null) contacts.invalidate();
             setChanged();
             notifyObservers( newBug );
         } else {
@@ -216,31 +300,29 @@ public class World extends Observable implements Serializable {
         while (bugItr.hasNext()) {
             if (bugItr.next() != bug) continue;
             bugItr.remove();
-            spatialGridDirty = true; // Mark grid as needing update
+            spatialIndex().remove( bug );
+            bugStore.retire( bug );
+            if (contacts != null) contacts.invalidate();
             break;
         }
     }
 
     public double strength() {
-        double total = 0;
-        for( Bug bug : bugs ) {
-            total += bug.strength();
-        }
-        return total;
+        return bugStore.totalStrength();
     }
 
     public double mass() {
-        double total = 0;
-        for( Bug bug : bugs ) {
-            total += bug.mass();
-        }
-        return total;
+        return bugStore.totalMass();
+    }
+
+    public Genotype algae() {
+        return algae;
     }
 
     public Genotype topSpecies() {
         Genotype top = null;
         for (Bug bug : bugs) {
-            if (bug.genotype == Genotype.algae()) continue;
+            if (bug.genotype == algae) continue;
             if (top == null) top = bug.genotype;
             if (bug.genotype.numLiving > top.numLiving) top = bug.genotype;
         }
@@ -263,6 +345,22 @@ public class World extends Observable implements Serializable {
         return total;
     }
 
+    int nextBugId() {
+        return ++numBugsEverCreated;
+    }
+
+    public int numBugsEverCreated() {
+        return numBugsEverCreated;
+    }
+
+    int nextSpeciesId() {
+        return ++numSpeciesEverCreated;
+    }
+
+    public int numSpeciesEverCreated() {
+        return numSpeciesEverCreated;
+    }
+
     public int numSpecies() {
         HashSet<Genotype> species = new HashSet<Genotype>();
         for( Bug bug : bugs ) {
@@ -271,64 +369,54 @@ public class World extends Observable implements Serializable {
         return species.size();
     }
 
+    /**
+     * Count the runs of instructions in the compiled genes of the living,
+     * weighted by how many carry each species.
+     */
+    public OpcodeProfile opcodeProfile() {
+        HashSet<Genotype> species = new HashSet<Genotype>();
+        for( Bug bug : bugs ) {
+            if (! bug.isDead()) species.add( bug.genotype );
+        }
+        OpcodeProfile profile = new OpcodeProfile();
+        for (Genotype genotype : species) {
+            for (Gene gene : genotype.genes) {
+                if (gene.when != null) profile.add( gene.whenProgram(), genotype.numLiving );
+                profile.add( gene.actionProgram(), genotype.numLiving );
+            }
+        }
+        return profile;
+    }
+
     // minRange is used when looking beyond a seen object
-    // Uses spatial grid for O(1) cell lookup instead of O(n) iteration
     private ZObject closestOf(
         Bug from,
         double maxRange,
         double minRange
     ) {
-        // Update spatial grid if needed
-        updateSpatialGrid();
-        
-        ZObject closest = null;
-        double closestRange = maxRange;
-        double maxRangeSquared = maxRange * maxRange;
-        
-        // Calculate which grid cells to check
-        int centerGridX = (int)(from.x() / GRID_CELL_SIZE);
-        int centerGridY = (int)(from.y() / GRID_CELL_SIZE);
-        int radius = (int)Math.ceil(maxRange / GRID_CELL_SIZE) + 1; // +1 for safety
-        
-        // Check bugs in nearby grid cells only
-        for (int dx = -radius; dx <= radius; dx++) {
-            for (int dy = -radius; dy <= radius; dy++) {
-                int key = gridKey(centerGridX + dx, centerGridY + dy);
-                List<Bug> cellBugs = spatialGrid.get(key);
-                if (cellBugs == null) continue;
-                
-                for (Bug obj : cellBugs) {
-                    if (obj == from || obj.isGone()) continue;
-                    
-                    // Quick distance check using direct coordinates (cheaper than toroidal range)
-                    double dxCoord = from.x() - obj.x();
-                    double dyCoord = from.y() - obj.y();
-                    // Account for toroidal wrapping
-                    double dxWrapped = Math.min(Math.abs(dxCoord), from.world.width - Math.abs(dxCoord));
-                    double dyWrapped = Math.min(Math.abs(dyCoord), from.world.height - Math.abs(dyCoord));
-                    double quickDistSquared = dxWrapped * dxWrapped + dyWrapped * dyWrapped;
-                    
-                    // Early exit: if quick distance check shows object is too far
-                    if (quickDistSquared > maxRangeSquared * 1.5) continue;
-                    
-                    // Check visibility before expensive range calculation
-                    if (! from.canSee( obj )) continue;
-                    
-                    // Now do expensive toroidal range calculation
-                    double range = from.range( obj );
-                    if (range > maxRange) continue;
-                    if (range <= minRange) continue;
-                    if (range >= closestRange) continue;
-                    
-                    closest = obj;
-                    closestRange = range;
-                }
-            }
+        if (minRange < from.radius() && contacts().covers( from )) {
+            // Anything nearer than our own radius is touching us,
+            // and so is sure to be one of our contacts
+            SpatialSearch.Closest touching = new SpatialSearch.Closest(
+                from, Math.min( maxRange, from.radius() ), minRange );
+            contacts.search( from, touching );
+            if (touching.closest != null || maxRange <= from.radius()) return touching.closest;
         }
-        return closest;
+        SpatialSearch.Closest search = new SpatialSearch.Closest( from, maxRange, minRange );
+        spatialIndex().search( search );
+        return search.closest;
+    }
+
+    /**
+     * Fill a cursor with everything the bug can see within maxRange, nearest first.
+     */
+    void gatherNeighbours( Bug from, double maxRange, NeighbourCursor cursor ) {
+        cursor.clear( cycle, from.x(), from.y() );
+        spatialIndex().search( new SpatialSearch.Neighbours( from, maxRange, cursor ));
+        cursor.sort();
     }
-    
-    // Legacy method for backward compatibility (now uses spatial grid)
+
+    // Legacy method for backward compatibility (now uses the spatial index)
     @SuppressWarnings("unused")
     private static ZObject closestOf(
         List<? extends ZObject> objects,
@@ -356,41 +444,38 @@ public class World extends Observable implements Serializable {
     public void resize( Dimension newSize ) {
         if (newSize.width > 0) width = newSize.width;
         if (newSize.height > 0) height = newSize.height;
-        spatialGridDirty = true; // Grid needs rebuilding after resize
-    }
-    
-    // Convert grid coordinates to a unique key
-    private int gridKey(int gridX, int gridY) {
-        int maxGridX = (width / GRID_CELL_SIZE) + 2; // +2 for safety
-        return gridY * maxGridX + gridX;
-    }
-    
-    // Update spatial grid with current bug positions
-    // Only updates once per cycle to avoid redundant rebuilds
-    private void updateSpatialGrid() {
-        // Only update if dirty and we haven't updated this cycle yet
-        if (!spatialGridDirty || lastGridUpdateCycle == cycle) return;
-        
-        spatialGrid.clear();
-        for (Bug bug : bugs) {
-            if (bug.isGone()) continue;
-            int gridX = (int)(bug.x() / GRID_CELL_SIZE);
-            int gridY = (int)(bug.y() / GRID_CELL_SIZE);
-            int key = gridKey(gridX, gridY);
-            List<Bug> cellBugs = spatialGrid.get(key);
-            if (cellBugs == null) {
-                cellBugs = new ArrayList<Bug>();
-                spatialGrid.put(key, cellBugs);
+        if (spatialIndex != null) spatialIndex.resize(); // Re-tile for the new size
+        if (contacts != null) contacts.invalidate();
+    }
+
+    private SpatialIndex spatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = newSpatialIndex( SpatialIndexType, false );
+            if (SpatialIndexReference != null && SpatialIndexReference.length() > 0) {
+                spatialIndex = new VerifyingIndex( this, spatialIndex,
+                    newSpatialIndex( SpatialIndexReference, true ));
             }
-            cellBugs.add(bug);
         }
-        spatialGridDirty = false;
-        lastGridUpdateCycle = cycle;
+        return spatialIndex;
     }
-    
-    // Mark spatial grid as needing update (call when bugs move or are added/removed)
-    public void markSpatialGridDirty() {
-        spatialGridDirty = true;
+
+    private SpatialIndex newSpatialIndex( String type, boolean reference ) {
+        if (type.equalsIgnoreCase( "Grid" )) return new SpatialGrid( this, reference );
+        if (type.equalsIgnoreCase( "Quadtree" )) return new ToroidalQuadtree( this, reference );
+        if (type.equalsIgnoreCase( "BruteForce" )) return new BruteForceIndex( this );
+        System.err.println( "Unknown spatial index \"" + type + "\", so using Grid" );
+        return new SpatialGrid( this, reference );
+    }
+
+    private ContactBroadphase contacts() {
+        if (contacts == null) contacts = new ContactBroadphase( this );
+        return contacts;
+    }
+
+    // Let the spatial index refile a bug that has moved or changed size
+    void moved( Bug bug ) {
+        if (spatialIndex != null) spatialIndex.move( bug );
+        if (contacts != null) contacts.moved( bug );
     }
 
     public void nextWorldCycle() {
@@ -400,9 +485,72 @@ public class World extends Observable implements Serializable {
             new Bug( this );
         }
         if (cycle % World.GarbageCollectionFreq == 0) System.gc();
+        if (SenseBeforeActing && ! Trace && bug2RunItr == null) sense();
+        if (bug2RunItr == null && actInTiles()) return;
         while (nextBugCycle()) {}
     }
 
+    // Run this cycle's turns tile by tile, many tiles at once,
+    // or return false if the world cannot be run in tiles
+    private boolean actInTiles() {
+        if (! ActInTiles) return false;
+        if (! SenseBeforeActing || ! RandomStreamPerBug || Trace
+                || ! (spatialIndex() instanceof SpatialGrid)) {
+            if (! warnedAboutTiles) {
+                System.err.println( "ActInTiles needs SenseBeforeActing, RandomStreamPerBug"
+                    + " and a Grid, without Trace, so acting one bug at a time" );
+                warnedAboutTiles = true;
+            }
+            return false;
+        }
+        ParallelActing tiles = ParallelActing.tile( this );
+        if (tiles == null) {
+            if (! warnedAboutTiles) {
+                System.err.println( "World too small to act in tiles for its VisionRange,"
+                    + " so acting one bug at a time" );
+                warnedAboutTiles = true;
+            }
+            return false;
+        }
+        Iterator<Bug> bugItr = bugs.iterator();
+        while (bugItr.hasNext()) {
+            Bug bug = bugItr.next();
+            if (! bug.isGone()) continue;
+            bug.repaint();
+            bugItr.remove();
+            spatialIndex().remove( bug );
+            bugStore.retire( bug );
+        }
+        Bug[] turns;
+        actingInTiles = true;
+        try {
+            turns = tiles.act( bugs );
+        } finally {
+            actingInTiles = false;
+        }
+        // In the order the turns were taken
+        for (Bug bug : turns) {
+            bug.settle();
+        }
+        cycle++;
+        return true;
+    }
+
+    // Let every living bug look and decide at once, against the world as the cycle began
+    private void sense() {
+        Bug[] living = new Bug[bugs.size()];
+        int numLiving = 0;
+        for (Bug bug : bugs) {
+            // Mass is cached when first asked for, so ask before bugs ask about each other
+            bug.mass();
+            if (! bug.isDead()) living[numLiving++] = bug;
+        }
+        // Searches build these when first needed, so build them before searching at once
+        spatialIndex();
+        contacts().refresh();
+        ParallelSensing.sense( living, numLiving );
+    }
+
     // return true if more bugs to run in this cycle
     public boolean nextBugCycle() {
         if (bug2RunItr == null) {
@@ -423,12 +571,10 @@ public class World extends Observable implements Serializable {
         if (bug.isGone()) {
             bug.repaint();
             bug2RunItr.remove();
-            spatialGridDirty = true; // Mark grid as needing update
+            spatialIndex().remove( bug );
+            bugStore.retire( bug );
         } else {
             bug.next();
-            // Mark grid dirty when bug moves (will be updated lazily on next query)
-            // Note: We mark dirty but only rebuild once per cycle
-            spatialGridDirty = true;
         }
         return true;
     }
@@ -436,8 +582,11 @@ public class World extends Observable implements Serializable {
     public void removeGoneBugs() {
         Iterator<Bug> bugItr = bugs.iterator();
         while (bugItr.hasNext()) {
-            if (bugItr.next().isGone()) {
+            Bug bug = bugItr.next();
+            if (bug.isGone()) {
                 bugItr.remove();
+                spatialIndex().remove( bug );
+                bugStore.retire( bug );
             }
         }
     }
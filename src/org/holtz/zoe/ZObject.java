@@ -1,12 +1,13 @@
 package org.holtz.zoe;
 import java.io.Serializable;
 import java.util.Observable;
+import java.util.Random;
 import java.awt.Color;
 
 import org.holtz.zoe.zoel.Literal;
+import org.holtz.zoe.zoel.LocationLiteral;
 import org.holtz.zoe.zoel.Number;
 import org.holtz.zoe.zoel.Register;
-import org.holtz.zoe.zoel.StringLiteral;
 /**
  * A physical object in a toroidal Zoe <code>World</code>.
  * @author Brian Holtz
@@ -14,16 +15,22 @@ import org.holtz.zoe.zoel.StringLiteral;
 public abstract class ZObject extends Observable implements Serializable {
 
     public World world;
-    private double x;
-    private double y;
-    public int id = getNextId();
+    public int id;
     private Object context;
     private Point cachedLocation;
     private boolean locationDirty = true;
 
     public ZObject( World theWorld ) {
         world = theWorld;
-        setXY( world.random.nextFloat() * world.width, world.random.nextFloat() * world.height );
+        id = getNextId();
+        setXY( random().nextFloat() * world.width, random().nextFloat() * world.height );
+    }
+
+    /**
+     * Where this object's random choices come from.
+     */
+    public Random random() {
+        return world.random;
     }
 
     public abstract int getNextId();
@@ -31,13 +38,15 @@ public abstract class ZObject extends Observable implements Serializable {
 
     public Point location() {
         if (locationDirty || cachedLocation == null) {
-            cachedLocation = new Point( x, y );
+            cachedLocation = new Point( x(), y() );
             locationDirty = false;
         }
         return cachedLocation;
     }
-    public double x() { return x; }
-    public double y() { return y; }
+    public abstract double x();
+    public abstract double y();
+    // Record a position already wrapped to lie within the world
+    protected abstract void place( double x, double y );
     
     public Object getContext() { return context; }
     public  ZObject setContext( Object ctxt ) {
@@ -61,20 +70,21 @@ public abstract class ZObject extends Observable implements Serializable {
     }
 
     public void brownianMotion() {
-        setXY( x + world.brownianMotion(), y + world.brownianMotion() );
+        setXY( x() + world.brownianMotion( random() ), y() + world.brownianMotion( random() ));
     }
 
     public void setXY( double newX, double newY ) {
-        x = newX;
-        y = newY;
+        double x = newX;
+        double y = newY;
         while (x < 0) { x += world.width; }
         while (x >= world.width) { x -= world.width; }
         while (y < 0) { y += world.height; }
         while (y >= world.height) { y -= world.height; }
+        place( x, y );
         locationDirty = true; // Mark location cache as invalid
-        // Mark spatial grid as dirty when object moves (only if it's a Bug)
+        // Let the spatial grid know in case we crossed into another cell
         if (this instanceof Bug) {
-            world.markSpatialGridDirty();
+            world.moved( (Bug)this );
         }
         repaint();
     }
@@ -87,124 +97,31 @@ public abstract class ZObject extends Observable implements Serializable {
     public Literal evaluate( Register reg ) {
         switch (reg) {
             case Location:
-                Point loc = new Point( x(), y() );
-                return new StringLiteral( loc.toString() );
+                return new LocationLiteral( x(), y() );
             default:
                 System.err.println( "Unimplemented register: " + reg.toString() );
                 return new Number( 0 );
         }
     }
 
-    private static double distance( double x1, double y1, double x2, double y2 ) {
-        return Math.sqrt( (x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2) );
-    }
-
-    private double rangeThruTop( Point target ) {
-        double warpedY = y + world.height;
-        if (y > target.getY()) { warpedY = y - world.height; }
-        return distance( x, warpedY, target.getX(), target.getY() );
-    }
-
-    private double rangeThruSides( Point target ) {
-        double warpedX = x + world.width;
-        if (x > target.getX()) { warpedX = x - world.width; }
-        return distance( warpedX, y, target.getX(), target.getY() );
-    }
-
-    private double rangeThruNWCorner( Point target ) {
-        double warpedX = x + world.width;
-        double warpedY = y + world.height;
-        if (x > target.getX() && y > target.getY()) {
-            warpedX = x - world.width;
-            warpedY = y - world.height;
-        }
-        return distance( warpedX, warpedY, target.getX(), target.getY() );
-    }
-
-    private double rangeThruNECorner( Point target ) {
-        double warpedX = x - world.width;
-        double warpedY = y + world.height;
-        if (x < target.getX() && y > target.getY()) {
-            warpedX = x + world.width;
-            warpedY = y - world.height;
-        }
-        return distance( warpedX, warpedY, target.getX(), target.getY() );
-    }
-
     public double range( Point target ) {
         if (target == null) return Double.MAX_VALUE;
-        double shortestRange = distance( x, y, target.getX(), target.getY() );
-        double anotherRange = rangeThruTop( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-        }
-        anotherRange = rangeThruSides( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-        }
-        anotherRange = rangeThruNECorner( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-        }
-        anotherRange = rangeThruNWCorner( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-        }
-        return shortestRange;
+        return Point.range( x(), y(), target.getX(), target.getY(), world );
     }
 
+    // Range to the nearest edge of the object
     public double range( ZObject theZObject ) {
         if (theZObject == null) return Double.MAX_VALUE;
-        double range = range( theZObject.location() ) - theZObject.radius();
+        double range = Point.range( x(), y(), theZObject.x(), theZObject.y(), world ) - theZObject.radius();
         return Math.max( 0, range );
     }
 
     public double bearing( ZObject theZObject ) {
-        return bearing( theZObject.location() );
+        return Point.bearing( x(), y(), theZObject.x(), theZObject.y(), world, null );
     }
     
     public double bearing( Point target ) {
         if (target == null) return 0;
-        double targetX = target.getX();
-        double targetY = target.getY();
-        double shortestRange = distance( x, y, targetX, targetY );
-        double bearing = Math.atan2( targetY - y, targetX - x );
-        double anotherRange = rangeThruTop( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedY = y + world.height;
-            if (y > targetY) { warpedY = y - world.height; }
-            bearing = Math.atan2( targetY - warpedY, targetX - x );
-        }
-        anotherRange = rangeThruSides( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x + world.width;
-            if (x > targetX) { warpedX = x - world.width; }
-            bearing = Math.atan2( targetY - y, targetX - warpedX );
-        }
-        anotherRange = rangeThruNECorner( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x - world.width;
-            double warpedY = y + world.height;
-            if (x < targetX && y > targetY) {
-                warpedX = x + world.width;
-                warpedY = y - world.height;
-            }
-            bearing = Math.atan2( targetY - warpedX, targetX - warpedY );
-        }
-        anotherRange = rangeThruNWCorner( target );
-        if (anotherRange < shortestRange) {
-            shortestRange = anotherRange;
-            double warpedX = x + world.width;
-            double warpedY = y + world.height;
-            if (x > targetX && y > targetY) {
-                warpedX = x - world.width;
-                warpedY = y - world.height;
-            }
-            bearing = Math.atan2( targetY - warpedX, targetX - warpedY );
-        }
-        return bearing;
+        return Point.bearing( x(), y(), target.getX(), target.getY(), world, null );
     }
 }
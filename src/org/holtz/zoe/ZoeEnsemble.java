@@ -0,0 +1,167 @@
+package org.holtz.zoe;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an ensemble of Zoe <code>World</code>s at once without a display, seeded
+ * Seed, Seed+1, and so on, each as <code>ZoeRunner</code> would in a directory of
+ * its own under SnapshotDir.  The worlds share the World constants read from
+ * Zoe.properties and the command line, but keep their own bugs, species and ids.
+ * How each world ended, and the mean, spread and range across them, go to
+ * ensemble.csv:
+ * <pre>
+ * java -Djava.awt.headless=true -classpath Zoe.jar org.holtz.zoe.ZoeEnsemble EnsembleSize=32 RunCycles=100000
+ * </pre>
+ * @author Brian Holtz
+ */
+public class ZoeEnsemble {
+    private static final String ResultsHeader = "cycle,seconds,live,dead,species,speciesEverCreated,mass,strength,topLiving";
+
+    private final long[] seeds;
+    // How each world ended, in the columns of ResultsHeader, or null if it failed
+    private final double[][] results;
+
+    public ZoeEnsemble( long firstSeed, int size ) {
+        seeds = new long[size];
+        long seed = firstSeed;
+        for (int i = 0; i < size; i++) {
+            // A seed of 0 would mean the clock's
+            if (seed == 0) seed++;
+            seeds[i] = seed++;
+        }
+        results = new double[size][];
+    }
+
+    /**
+     * Run every world to its end, a number at a time.
+     * @param threads How many worlds to run at once
+     */
+    public void run( int threads ) throws IOException, InterruptedException {
+        File dir = new File( World.SnapshotDir );
+        if (! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new IOException( "Cannot create " + dir.getPath() );
+        }
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        try {
+            List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+            for (final long seed : seeds) {
+                futures.add( pool.submit( new Callable<double[]>() {
+                    public double[] call() throws IOException {
+                        return runWorld( seed );
+                    }
+                }));
+            }
+            for (int i = 0; i < seeds.length; i++) {
+                try {
+                    results[i] = futures.get( i ).get();
+                } catch (ExecutionException e) {
+                    System.err.println( "World " + seeds[i] + ": " + e.getCause().toString() );
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        report( new File( dir, "ensemble.csv" ));
+    }
+
+    private static double[] runWorld( long seed ) throws IOException {
+        World world = new World( new Dimension( World.Width, World.Height ), seed );
+        world.loadFounderBugs();
+        world.loadRandomBugs();
+        long startNanos = System.nanoTime();
+        new ZoeRunner( world, new File( World.SnapshotDir, "seed-" + seed )).run();
+        Genotype top = world.topSpecies();
+        return new double[] { world.cycle, (System.nanoTime() - startNanos) / 1e9,
+            world.numLive(), world.numDead(), world.numSpecies(), world.numSpeciesEverCreated(),
+            world.mass(), world.strength(), (top == null) ? 0 : top.numLiving };
+    }
+
+    // A line per world, then the mean, standard deviation, minimum and maximum of each column
+    private void report( File file ) throws IOException {
+        int columns = ResultsHeader.split( "," ).length;
+        double[] sum = new double[columns];
+        double[] sumOfSquares = new double[columns];
+        double[] min = new double[columns];
+        double[] max = new double[columns];
+        int n = 0;
+        PrintWriter out = new PrintWriter( new FileWriter( file ));
+        try {
+            out.println( "seed," + ResultsHeader );
+            for (int i = 0; i < seeds.length; i++) {
+                if (results[i] == null) continue;
+                out.println( seeds[i] + line( results[i] ));
+                for (int c = 0; c < columns; c++) {
+                    double value = results[i][c];
+                    sum[c] += value;
+                    sumOfSquares[c] += value * value;
+                    min[c] = (n == 0) ? value : Math.min( min[c], value );
+                    max[c] = (n == 0) ? value : Math.max( max[c], value );
+                }
+                n++;
+            }
+            if (n > 0) {
+                double[] mean = new double[columns];
+                double[] deviation = new double[columns];
+                for (int c = 0; c < columns; c++) {
+                    mean[c] = sum[c] / n;
+                    deviation[c] = Math.sqrt( Math.max( 0, sumOfSquares[c] / n - mean[c] * mean[c] ));
+                }
+                out.println( "mean" + line( mean ));
+                out.println( "stddev" + line( deviation ));
+                out.println( "min" + line( min ));
+                out.println( "max" + line( max ));
+                System.out.println( "Ensemble of " + n + " worlds: "
+                    + String.format( "%.0f", mean[0] ) + " cycles, "
+                    + String.format( "%.1f", mean[2] ) + " +/- " + String.format( "%.1f", deviation[2] ) + " alive, "
+                    + String.format( "%.1f", mean[4] ) + " +/- " + String.format( "%.1f", deviation[4] ) + " species"
+                    + ", in " + file.getPath() );
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String line( double[] values ) {
+        String line = "";
+        for (double value : values) {
+            line += (value == Math.rint( value )) ? "," + (long) value : String.format( ",%.4f", value );
+        }
+        return line;
+    }
+
+    /**
+     * @param args World constants as Name=value
+     */
+    public static void main( String[] args ) {
+        World.initProperties();
+        for (String arg : args) {
+            int equals = arg.indexOf( '=' );
+            if (equals <= 0) {
+                System.err.println( "ZoeEnsemble: expected Name=value, not " + arg );
+                System.exit( 1 );
+            }
+            World.props.setProperty( arg.substring( 0, equals ).trim(), arg.substring( equals + 1 ));
+        }
+        World.applyProperties();
+        long firstSeed = (World.Seed != 0) ? World.Seed : World.clockSeed();
+        System.out.println( "Ensemble of " + World.EnsembleSize + " worlds, replayable with Seed=" + firstSeed );
+        int threads = (World.EnsembleThreads > 0) ? World.EnsembleThreads
+            : Runtime.getRuntime().availableProcessors();
+        try {
+            new ZoeEnsemble( firstSeed, World.EnsembleSize ).run( threads );
+        } catch (Exception e) {
+            System.err.println( "ZoeEnsemble: " + e.toString() );
+            System.exit( 1 );
+        }
+    }
+}
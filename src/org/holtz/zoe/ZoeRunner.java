@@ -0,0 +1,163 @@
+package org.holtz.zoe;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+
+/**
+ * Runs a Zoe <code>World</code> without a display, as fast as it will go,
+ * for a number of cycles or seconds, saving snapshots and logging metrics along the way.
+ * Any World constant can be set on the command line after those read from Zoe.properties:
+ * <pre>
+ * java -Djava.awt.headless=true -classpath Zoe.jar org.holtz.zoe.ZoeRunner RunCycles=100000 Seed=7
+ * </pre>
+ * An argument that names a file instead resumes the world saved in it.
+ * @author Brian Holtz
+ */
+public class ZoeRunner {
+    private static final String MetricsHeader = "cycle,seconds,hertz,live,dead,species,mass,strength,topSpecies,topLiving";
+
+    private final World world;
+    private final File snapshotDir;
+    private PrintWriter metrics;
+    private long startNanos;
+    private long lastSampleNanos;
+    private int lastSampleCycle;
+
+    public ZoeRunner( World theWorld ) {
+        this( theWorld, new File( World.SnapshotDir ));
+    }
+
+    /**
+     * @param theSnapshotDir Where to save snapshots and metrics.csv
+     */
+    public ZoeRunner( World theWorld, File theSnapshotDir ) {
+        world = theWorld;
+        snapshotDir = theSnapshotDir;
+    }
+
+    /**
+     * Run until out of cycles, seconds or bugs, whichever comes first.
+     */
+    public void run() throws IOException {
+        if (! snapshotDir.isDirectory() && ! snapshotDir.mkdirs()) {
+            throw new IOException( "Cannot create " + snapshotDir.getPath() );
+        }
+        File metricsFile = new File( snapshotDir, "metrics.csv" );
+        boolean appending = metricsFile.length() > 0;
+        metrics = new PrintWriter( new FileWriter( metricsFile, appending ));
+        if (! appending) metrics.println( MetricsHeader );
+        startNanos = System.nanoTime();
+        lastSampleNanos = startNanos;
+        lastSampleCycle = world.cycle;
+        int startCycle = world.cycle;
+        int endCycle = (World.RunCycles > 0) ? world.cycle + World.RunCycles : Integer.MAX_VALUE;
+        long endNanos = (World.RunSeconds > 0) ? startNanos + World.RunSeconds * 1000000000L : Long.MAX_VALUE;
+        logMetrics();
+        try {
+            while (world.cycle < endCycle && System.nanoTime() < endNanos && world.numLive() > 0) {
+                world.nextWorldCycle();
+                if (due( world.cycle - startCycle, World.MetricsEveryCycles )) logMetrics();
+                if (due( world.cycle - startCycle, World.SnapshotEveryCycles )) snapshot();
+            }
+            // Finish with the world as it ended, unless just logged and saved
+            if (! due( world.cycle - startCycle, World.MetricsEveryCycles )) logMetrics();
+            if (! due( world.cycle - startCycle, World.SnapshotEveryCycles )) snapshot();
+            if (World.OpcodeProfileRuns > 0) profileOpcodes();
+        } finally {
+            metrics.close();
+        }
+    }
+
+    private static boolean due( int cyclesRun, int every ) {
+        return every > 0 && cyclesRun % every == 0;
+    }
+
+    private void logMetrics() {
+        long now = System.nanoTime();
+        double seconds = (now - startNanos) / 1e9;
+        double sampleSecs = (now - lastSampleNanos) / 1e9;
+        long hertz = (sampleSecs > 0) ? Math.round( (world.cycle - lastSampleCycle) / sampleSecs ) : 0;
+        lastSampleNanos = now;
+        lastSampleCycle = world.cycle;
+        int numLive = world.numLive();
+        Genotype top = world.topSpecies();
+        String line = world.cycle + String.format( ",%.1f,", seconds ) + hertz
+            + "," + numLive + "," + world.numDead() + "," + world.numSpecies()
+            + String.format( ",%.4f,%.4f,", world.mass(), world.strength() )
+            + ((top == null) ? "," : top.id + "," + top.numLiving);
+        metrics.println( line );
+        metrics.flush();
+        System.out.println( "World " + world.seed + ": " + world.cycle
+            + String.format( " / %.1fs = ", seconds ) + hertz + "hz    " + numLive + " alive"
+            + ((top == null) ? "" : " [" + top.numLiving + " are species " + top.id + "]")
+            + ", " + world.numSpecies() + " species" );
+    }
+
+    private void snapshot() {
+        File file = new File( snapshotDir, "world-" + world.seed + "-" + world.cycle + ".ser" );
+        try {
+            world.save( file );
+        } catch (IOException e) {
+            System.err.println( "Cannot save " + file.getPath() + ": " + e.toString() );
+        }
+    }
+
+    // List the runs of instructions that the living are made of, to show which to fuse
+    private void profileOpcodes() throws IOException {
+        PrintWriter out = new PrintWriter( new FileWriter( new File( snapshotDir, "opcodes.txt" )));
+        try {
+            out.println( "Cycle " + world.cycle + " of world " + world.seed );
+            for (String run : world.opcodeProfile().top( World.OpcodeProfileRuns )) {
+                out.println( run );
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static World load( File file ) throws IOException, ClassNotFoundException {
+        FileInputStream fileIn = new FileInputStream( file );
+        try {
+            ObjectInputStream in = new ObjectInputStream( fileIn );
+            System.out.println( "Loading " + file.getPath() );
+            return (World) in.readObject();
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    /**
+     * @param args World constants as Name=value, and optionally a saved world to resume
+     */
+    public static void main( String[] args ) {
+        World.initProperties();
+        File savedWorld = null;
+        for (String arg : args) {
+            int equals = arg.indexOf( '=' );
+            if (equals > 0) {
+                World.props.setProperty( arg.substring( 0, equals ).trim(), arg.substring( equals + 1 ));
+            } else {
+                savedWorld = new File( arg );
+            }
+        }
+        World.applyProperties();
+        try {
+            World world;
+            if (savedWorld != null) {
+                world = load( savedWorld );
+            } else {
+                world = new World( new Dimension( World.Width, World.Height ));
+                world.loadFounderBugs();
+                world.loadRandomBugs();
+            }
+            new ZoeRunner( world ).run();
+        } catch (Exception e) {
+            System.err.println( "ZoeRunner: " + e.toString() );
+            System.exit( 1 );
+        }
+    }
+}
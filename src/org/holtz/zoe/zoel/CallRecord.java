@@ -2,7 +2,7 @@ package org.holtz.zoe.zoel;
 
 
 /**
- * An entry in the <code>CallStack</code> of the <code>ZoelVM</code> of a Zoe <code>Bug</code>.
+ * A position in a Zoel <code>Expression</code>, which can be looked at and stepped back.
  * @author Brian Holtz
  */
 public interface CallRecord {
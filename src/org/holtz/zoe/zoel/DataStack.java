@@ -0,0 +1,213 @@
+package org.holtz.zoe.zoel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The data stack of a <code>ZoelVM</code>, which keeps numbers unboxed so that
+ * arithmetic and register reads do not allocate a <code>Number</code> per step.
+ * A slot also remembers the <code>Literal</code> it was loaded from, if any,
+ * which is how strings are held.
+ * A <code>Literal</code> is only created when a computed number escapes the VM.
+ * An empty DataStack pops and peeks as zero.
+ * The slots are a ring, so forgetting the deepest element to stay within
+ * the limit on a bug's data takes no shifting.
+ * @author Brian Holtz
+ */
+class DataStack implements Serializable {
+    private static final long serialVersionUID = 202610181300L;
+    private static final int InitialCapacity = 16;
+
+    // Capacities are powers of two, so positions wrap with a mask
+    private double[] numbers = new double[InitialCapacity];
+    // Null unless the slot holds a Literal rather than a computed number
+    private Literal[] literals = new Literal[InitialCapacity];
+    // Where the deepest element is
+    private int bottom;
+    private int size;
+    // What an empty stack pops and peeks as
+    private final Number zero = new Number( 0 );
+
+    int size() {
+        return size;
+    }
+
+    boolean empty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill( literals, null );
+        bottom = 0;
+        size = 0;
+    }
+
+    // Where the ith element from the bottom is
+    private int at( int i ) {
+        return (bottom + i) & (numbers.length - 1);
+    }
+
+    void push( double val ) {
+        if (size == numbers.length) grow();
+        int i = at( size++ );
+        numbers[i] = val;
+        literals[i] = null;
+    }
+
+    // Double the capacity, unwrapping the ring
+    private void grow() {
+        double[] newNumbers = new double[numbers.length * 2];
+        Literal[] newLiterals = new Literal[numbers.length * 2];
+        for (int i = 0; i < size; i++) {
+            newNumbers[i] = numbers[at( i )];
+            newLiterals[i] = literals[at( i )];
+        }
+        numbers = newNumbers;
+        literals = newLiterals;
+        bottom = 0;
+    }
+
+    void push( Literal val ) {
+        push( 0 );
+        set( at( size - 1 ), val );
+    }
+
+    // Forget the deepest elements beyond maxSize
+    void push( Literal val, int maxSize ) {
+        if (maxSize <= 0) {
+            clear();
+            return;
+        }
+        // Forget before pushing, so a stack at its limit never grows
+        while (size >= maxSize) {
+            literals[bottom] = null;
+            bottom = at( 1 );
+            size--;
+        }
+        push( val );
+    }
+
+    void poke( double val ) {
+        if (empty()) {
+            push( val );
+        } else {
+            int i = at( size - 1 );
+            numbers[i] = val;
+            literals[i] = null;
+        }
+    }
+
+    void poke( boolean val ) {
+        poke( val ? 1 : 0 );
+    }
+
+    void poke( Literal val ) {
+        if (empty()) push( 0 );
+        set( at( size - 1 ), val );
+    }
+
+    // Set the slot at position i of the ring
+    private void set( int i, Literal val ) {
+        // A missing value is treated as zero
+        if (val == null) {
+            numbers[i] = 0;
+            literals[i] = null;
+        } else if (val instanceof Number) {
+            numbers[i] = ((Number)val).val;
+            literals[i] = val;
+        } else {
+            numbers[i] = 0;
+            literals[i] = val;
+        }
+    }
+
+    void drop() {
+        if (empty()) return;
+        literals[at( --size )] = null;
+    }
+
+    /**
+     * The number depth slots below the top, or zero beyond the bottom.
+     */
+    double number( int depth ) {
+        int i = size - 1 - depth;
+        if (i < 0) return 0;
+        Literal string = string( depth );
+        if (string != null) return string.toNumber();
+        return numbers[at( i )];
+    }
+
+    boolean isTrue( int depth ) {
+        int i = size - 1 - depth;
+        if (i < 0) return false;
+        Literal string = string( depth );
+        if (string != null) return string.isTrue();
+        return numbers[at( i )] != 0;
+    }
+
+    /**
+     * The string depth slots below the top, or null if it is a number.
+     */
+    Literal string( int depth ) {
+        int i = size - 1 - depth;
+        if (i < 0) return null;
+        Literal val = literals[at( i )];
+        return (val instanceof Number) ? null : val;
+    }
+
+    /**
+     * The number depth slots below the top, or zero if it is a string.
+     */
+    double value( int depth ) {
+        int i = size - 1 - depth;
+        if (i < 0) return 0;
+        return numbers[at( i )];
+    }
+
+    double popNumber() {
+        double val = number( 0 );
+        drop();
+        return val;
+    }
+
+    /**
+     * The top as a <code>Literal</code>, for values that leave the VM.
+     */
+    Literal peek() {
+        if (empty()) return zero;
+        int i = at( size - 1 );
+        if (literals[i] == null) literals[i] = new Number( numbers[i] );
+        return literals[i];
+    }
+
+    Literal pop() {
+        Literal val = peek();
+        drop();
+        return val;
+    }
+
+    // Describe the ith element from the bottom
+    private String describe( int i ) {
+        if (literals[at( i )] != null) return literals[at( i )].toString();
+        return new Number( numbers[at( i )] ).toString();
+    }
+
+    public String toString() {
+        String msg = "[";
+        for (int i = 0; i < size; i++) {
+            if (i > 0) msg += ", ";
+            msg += describe( i );
+        }
+        return msg + "]";
+    }
+
+    public String toString( int n ) {
+        if (size <= n) return toString();
+        String msg = size + ": [...";
+        while (n > 0) {
+            msg += " " + describe( size - n );
+            n--;
+        }
+        return msg + "]";
+    }
+}
@@ -3,7 +3,7 @@ package org.holtz.zoe.zoel;
 import java.io.Serializable;
 
 /**
-* An entry in the <code>CallStack</code> of a <code>Bug</code> storing execution state for a <code>StatementList</code>.
+* A position in an <code>ExpressionList</code>, as picked by <code>ExpressionList.randomPosition</code> for mutating it there.
 * @author Brian Holtz
 */
 public class ExpressionListCall implements CallRecord, Serializable {
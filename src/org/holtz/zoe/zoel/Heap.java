@@ -0,0 +1,220 @@
+package org.holtz.zoe.zoel;
+
+import java.io.Serializable;
+
+/**
+ * The memory that <code>Set</code> and <code>Get</code> use, mapping keys to values.
+ * Keys match by value: numbers by number, strings by text, and Locations by
+ * coordinates.  Once the heap is full, each new key evicts the oldest one.
+ * Entries are kept in a ring in the order their keys were first set, and found
+ * through an open-addressed index, so neither setting nor getting allocates.
+ * @author Brian Holtz
+ */
+public class Heap implements Serializable {
+    private static final long serialVersionUID = 202610181700L;
+
+    // Kinds of key
+    private static final byte NumberKey = 0;
+    private static final byte StringKey = 1;
+    private static final byte LocationKey = 2;
+
+    // The ring of entries, oldest at first
+    private byte[] kinds = new byte[0];
+    // A number key, or the x of a Location
+    private double[] xs = new double[0];
+    // The y of a Location
+    private double[] ys = new double[0];
+    private String[] strings = new String[0];
+    private Literal[] values = new Literal[0];
+    // When each entry's value was last set, by the count of changes to the heap
+    private long[] setAt = new long[0];
+    private long changes;
+    // When a key was last evicted, and so when any key not in the heap last changed
+    private long evictedAt;
+    private int first;
+    private int size;
+    // Each slot is an entry's place in the ring plus one, or zero if empty
+    private int[] index = new int[1];
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The value set for this key, or null if none
+     */
+    public Literal get( Literal key ) {
+        int slot = find( key );
+        return (index[slot] == 0) ? null : values[index[slot] - 1];
+    }
+
+    /**
+     * A stamp of the value of a key, which grows whenever that value might have
+     * changed but not when only other keys have been set.
+     */
+    public long stamp( Literal key ) {
+        int slot = find( key );
+        return (index[slot] == 0) ? evictedAt : setAt[index[slot] - 1];
+    }
+
+    /**
+     * Set the value of a key, evicting the oldest keys to keep to maxSize.
+     * @return The key's previous value, or null if it had none
+     */
+    public Literal put( Literal key, Literal value, int maxSize ) {
+        int slot = find( key );
+        if (index[slot] != 0) {
+            int entry = index[slot] - 1;
+            Literal old = values[entry];
+            values[entry] = value;
+            setAt[entry] = ++changes;
+            return old;
+        }
+        if (maxSize <= 0) return null;
+        if (size >= maxSize || size == kinds.length) {
+            while (size >= maxSize) evictOldest();
+            if (size == kinds.length) resize( Math.min( Math.max( 2 * size, 4 ), maxSize ));
+            // Evicting and resizing move keys around the index
+            slot = find( key );
+        }
+        int entry = (first + size) % kinds.length;
+        size++;
+        store( entry, key );
+        values[entry] = value;
+        setAt[entry] = ++changes;
+        index[slot] = entry + 1;
+        return null;
+    }
+
+    // The slot of the index holding the key, or the empty slot where it would go
+    private int find( Literal key ) {
+        int mask = index.length - 1;
+        int slot = hash( key ) & mask;
+        while (index[slot] != 0 && ! matches( index[slot] - 1, key )) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches( int entry, Literal key ) {
+        if (key instanceof Number) {
+            return kinds[entry] == NumberKey && same( xs[entry], ((Number)key).val );
+        } else if (key instanceof LocationLiteral) {
+            LocationLiteral location = (LocationLiteral)key;
+            return kinds[entry] == LocationKey
+                && same( xs[entry], location.x ) && same( ys[entry], location.y );
+        } else {
+            return kinds[entry] == StringKey && text( key ).equals( strings[entry] );
+        }
+    }
+
+    private void store( int entry, Literal key ) {
+        if (key instanceof Number) {
+            kinds[entry] = NumberKey;
+            xs[entry] = ((Number)key).val;
+        } else if (key instanceof LocationLiteral) {
+            kinds[entry] = LocationKey;
+            xs[entry] = ((LocationLiteral)key).x;
+            ys[entry] = ((LocationLiteral)key).y;
+        } else {
+            kinds[entry] = StringKey;
+            strings[entry] = text( key );
+        }
+    }
+
+    // Zero and negative zero are the same key, as are any two NaNs
+    private static boolean same( double a, double b ) {
+        return a == b || (a != a && b != b);
+    }
+
+    private static int hash( Literal key ) {
+        if (key instanceof Number) return mix( bits( ((Number)key).val ));
+        if (key instanceof LocationLiteral) {
+            LocationLiteral location = (LocationLiteral)key;
+            return mix( bits( location.x ) * 31 + bits( location.y ));
+        }
+        return mix( text( key ).hashCode() );
+    }
+
+    private int hash( int entry ) {
+        switch (kinds[entry]) {
+            case NumberKey:
+                return mix( bits( xs[entry] ));
+            case LocationKey:
+                return mix( bits( xs[entry] ) * 31 + bits( ys[entry] ));
+            default:
+                return mix( strings[entry].hashCode() );
+        }
+    }
+
+    private static long bits( double val ) {
+        return (val == 0) ? 0 : Double.doubleToLongBits( val );
+    }
+
+    // Spread the bits, since the index only looks at the low ones
+    private static int mix( long bits ) {
+        bits *= 0x9E3779B97F4A7C15L;
+        return (int)(bits ^ (bits >>> 32));
+    }
+
+    private static String text( Literal key ) {
+        return String.valueOf( key.toString() );
+    }
+
+    private void evictOldest() {
+        int mask = index.length - 1;
+        int slot = hash( first ) & mask;
+        while (index[slot] != first + 1) slot = (slot + 1) & mask;
+        strings[first] = null;
+        values[first] = null;
+        evictedAt = ++changes;
+        first = (first + 1) % kinds.length;
+        size--;
+        // Shift back any entries that probed past the emptied slot
+        int hole = slot;
+        for (int next = (slot + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = hash( index[next] - 1 ) & mask;
+            // Move it unless its home lies cyclically after the hole, up to where it is
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    // Make room for capacity entries, with the oldest first
+    private void resize( int capacity ) {
+        byte[] newKinds = new byte[capacity];
+        double[] newXs = new double[capacity];
+        double[] newYs = new double[capacity];
+        String[] newStrings = new String[capacity];
+        Literal[] newValues = new Literal[capacity];
+        long[] newSetAt = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int entry = (first + i) % kinds.length;
+            newKinds[i] = kinds[entry];
+            newXs[i] = xs[entry];
+            newYs[i] = ys[entry];
+            newStrings[i] = strings[entry];
+            newValues[i] = values[entry];
+            newSetAt[i] = setAt[entry];
+        }
+        kinds = newKinds;
+        xs = newXs;
+        ys = newYs;
+        strings = newStrings;
+        values = newValues;
+        setAt = newSetAt;
+        first = 0;
+        // Keep the index at most half full
+        int slots = Integer.highestOneBit( Math.max( 2 * capacity, 2 ) - 1 ) << 1;
+        index = new int[slots];
+        int mask = slots - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hash( entry ) & mask;
+            while (index[slot] != 0) slot = (slot + 1) & mask;
+            index[slot] = entry + 1;
+        }
+    }
+}
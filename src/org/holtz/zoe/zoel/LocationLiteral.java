@@ -0,0 +1,90 @@
+package org.holtz.zoe.zoel;
+
+
+import java.io.Serializable;
+
+/**
+ * A Location <code>Literal</code>, as read from a Location register.
+ * It reads like the string <code>{ x=100.333, y=200.000 }</code>, but keeps its
+ * coordinates as numbers, so that Zoel operators need not parse it back.
+ * @author Brian Holtz
+ */
+public class LocationLiteral extends Literal implements Serializable {
+    private static final long serialVersionUID = 202610181500L;
+    private static final String Prefix = "{ x=";
+    private static final String Separator = ", y=";
+    private static final String Suffix = " }";
+
+    public double x;
+    public double y;
+
+    public LocationLiteral( double theX, double theY ) {
+        x = theX;
+        y = theY;
+    }
+
+    public LocationLiteral( LocationLiteral obj2Copy ) {
+        x = obj2Copy.x;
+        y = obj2Copy.y;
+    }
+
+    @Override
+    public LocationLiteral copy() {
+        return new LocationLiteral( this );
+    }
+
+    @Override
+    public String toString(String statementSeparator, Expression currExpr,
+        String cursor) {
+        return '"' + toString() + '"';
+    }
+
+    @Override
+    public boolean isTrue() {
+        // Like any non-empty string
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return Prefix + String.format( "%.3f", x ) + Separator + String.format( "%.3f", y ) + Suffix;
+    }
+
+    @Override
+    public double toNumber() {
+        // Like any string that is not a number
+        return 0;
+    }
+
+    @Override
+    public int toInteger() {
+        return 0;
+    }
+
+    /**
+     * The Location a Literal holds, whether read from a register or written as a string.
+     * @return The Location, or null if the Literal is not one
+     */
+    public static LocationLiteral from( Literal val ) {
+        if (val instanceof LocationLiteral) return (LocationLiteral)val;
+        if (val instanceof StringLiteral) return parse( ((StringLiteral)val).val );
+        return null;
+    }
+
+    /**
+     * @return The Location written in text, or null if it is not one
+     */
+    public static LocationLiteral parse( String text ) {
+        if (text == null || ! text.startsWith( Prefix ) || ! text.endsWith( Suffix )) return null;
+        int separator = text.indexOf( Separator, Prefix.length() );
+        if (separator < 0) return null;
+        try {
+            return new LocationLiteral(
+                Double.parseDouble( text.substring( Prefix.length(), separator )),
+                Double.parseDouble( text.substring( separator + Separator.length(),
+                    text.length() - Suffix.length() )));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
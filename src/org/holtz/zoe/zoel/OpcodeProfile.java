@@ -0,0 +1,78 @@
+package org.holtz.zoe.zoel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the runs of instructions that a population's programs are made of,
+ * to show which runs are worth fusing into superinstructions.
+ * A run only counts if a VM always executes it whole: nothing jumps into its
+ * middle, and no step begins there.
+ * @author Brian Holtz
+ */
+public class OpcodeProfile {
+    private static final int MaxLength = 3;
+
+    private final Map<String, Long> counts = new HashMap<String, Long>();
+
+    /**
+     * Count the runs in a program.
+     * @param weight How many carry the program
+     */
+    public void add( Program program, long weight ) {
+        int[] code = program.code;
+        boolean[] targeted = new boolean[code.length + 1];
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc] & Program.OpcodeMask) {
+                case Program.Jump:
+                case Program.JumpIfFalse:
+                case Program.JumpIfTrue:
+                case Program.JumpIfFalseOrPushRegister:
+                case Program.JumpIfTrueOrPushRegister:
+                    targeted[Program.target( code[pc] )] = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (int pc = 0; pc < code.length; pc++) {
+            String run = name( code[pc] );
+            for (int end = pc + 1; end < code.length && end - pc < MaxLength; end++) {
+                if (targeted[end] || (code[end] & (Program.StepStart | Program.InnerStep)) != 0) break;
+                run += " " + name( code[end] );
+                Long count = counts.get( run );
+                counts.put( run, (count == null ? 0 : count) + weight );
+            }
+        }
+    }
+
+    private static String name( int instruction ) {
+        int opcode = instruction & Program.OpcodeMask;
+        String name = Program.opcodeName( opcode );
+        if (opcode == Program.Execute) {
+            name += ":" + Operator.values()[instruction >> Program.OperandShift];
+        }
+        return name;
+    }
+
+    /**
+     * @return The n most common runs, most common first, with their counts
+     */
+    public List<String> top( int n ) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>( counts.entrySet() );
+        Collections.sort( entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare( Map.Entry<String, Long> a, Map.Entry<String, Long> b ) {
+                return b.getValue().compareTo( a.getValue() );
+            }
+        });
+        List<String> top = new ArrayList<String>();
+        for (int i = 0; i < n && i < entries.size(); i++) {
+            top.add( String.format( "%10d  %s", entries.get( i ).getValue(), entries.get( i ).getKey() ));
+        }
+        return top;
+    }
+}
@@ -213,6 +213,52 @@ public enum Operator {
            Not
     };
 
+    /**
+     * The implicit argument, if any, of an Operator.
+     * @return A RegisterReference or Literal, or null if the Operator has no implicit argument.
+     */
+    public Value implicitArg() {
+        switch (this) {
+            case Turn:
+                return new RegisterReference( Register.Toward );
+            case Split:
+            case Spawn:
+                return new Number( 1 );
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Whether an Operator only computes on the stack, without the registers,
+     * the heap, randomness, output or actions.
+     */
+    public boolean isPure() {
+        switch (this) {
+            case Push:
+            case Pop:
+            case IfThen:
+            case Else:
+            case While:
+            case And:
+            case Or:
+            case Equals:
+            case LessThan:
+            case GreaterThan:
+            case Plus:
+            case Minus:
+            case Times:
+            case DividedBy:
+            case Modulus:
+            case Not:
+            case Negate:
+            case AbsoluteVal:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public boolean isBinary() {
         return maxNumArgs() == 2;
     }
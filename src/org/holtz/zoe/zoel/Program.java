@@ -0,0 +1,269 @@
+package org.holtz.zoe.zoel;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * An <code>ExpressionList</code> compiled into a flat array of instructions
+ * that a <code>ZoelVM</code> can run without walking the <code>Expression</code> tree.
+ * Each instruction is an opcode and an operand packed into an int.
+ * The first instruction of each VM step is marked, so that the VM can count steps
+ * exactly as if it were walking the tree, and a turn can end and resume between
+ * any two steps.
+ * @author Brian Holtz
+ */
+public class Program implements Serializable {
+    private static final long serialVersionUID = 202610181400L;
+
+    // Opcodes
+    static final int Nop = 0;
+    // Replace Stack.0 with literals[operand]
+    static final int PokeLiteral = 1;
+    // Replace Stack.0 with the value of registers[operand]
+    static final int PokeRegister = 2;
+    // Make room on the stack for the arg of a binary operator
+    static final int PushZero = 3;
+    // Go to the instruction at operand
+    static final int Jump = 4;
+    // Go to the instruction at operand if Stack.0 is false
+    static final int JumpIfFalse = 5;
+    // Go to the instruction at operand if Stack.0 is true
+    static final int JumpIfTrue = 6;
+    // Execute the Operator whose ordinal is operand
+    static final int Execute = 7;
+    // The program has ended
+    static final int Exit = 8;
+    // Replace Stack.0 with the number literals[operand], as if it had been computed
+    static final int PokeNumber = 9;
+    // Superinstructions, each doing the work of a run of instructions that evolved
+    // programs are full of, as counted by OpcodeProfile
+    // PushZero then PokeRegister
+    static final int PushRegister = 10;
+    // PushZero then PokeLiteral
+    static final int PushLiteral = 11;
+    // JumpIfFalse, then PushRegister if it did not jump.  The operand packs the
+    // target into its low TargetBits and the register above them.
+    static final int JumpIfFalseOrPushRegister = 12;
+    // JumpIfTrue, then PushRegister if it did not jump
+    static final int JumpIfTrueOrPushRegister = 13;
+    static final int TargetBits = 12;
+
+    static final int OpcodeMask = 0x7F;
+    // Marks where a step began before the optimizer merged it into the step before,
+    // so that it still counts as a step
+    static final int InnerStep = 1 << 7;
+    // Marks the first instruction of a step
+    static final int StepStart = 1 << 8;
+    static final int OperandShift = 9;
+
+    // The bit of reads() for the heap; the other bits are Me registers, by ordinal
+    public static final long ReadsHeap = 1L << 62;
+
+    final ExpressionList main;
+    final int[] code;
+    final Literal[] literals;
+    final RegisterReference[] registers;
+    // The Expression that each instruction was compiled from
+    final Expression[] sources;
+    // What the program reads, or -1 if it does more than read
+    public final long reads;
+    // The keys the program gets from the heap, or null if it computes any of them
+    public final Literal[] heapKeys;
+    // Whether the program only reads and computes, so that any number of hosts
+    // can run it at once while none of them changes
+    public final boolean readOnly;
+
+    Program( ExpressionList theMain, int[] theCode, Literal[] theLiterals,
+            RegisterReference[] theRegisters, Expression[] theSources ) {
+        main = theMain;
+        code = theCode;
+        literals = theLiterals;
+        registers = theRegisters;
+        sources = theSources;
+        reads = reads();
+        heapKeys = heapKeys();
+        readOnly = readOnly();
+    }
+
+    // Where a jump instruction goes
+    static int target( int instruction ) {
+        int operand = instruction >> OperandShift;
+        switch (instruction & OpcodeMask) {
+            case JumpIfFalseOrPushRegister:
+            case JumpIfTrueOrPushRegister:
+                return operand & ((1 << TargetBits) - 1);
+            default:
+                return operand;
+        }
+    }
+
+    // The register that an instruction reads, or -1 if none
+    static int register( int instruction ) {
+        int operand = instruction >> OperandShift;
+        switch (instruction & OpcodeMask) {
+            case PokeRegister:
+            case PushRegister:
+                return operand;
+            case JumpIfFalseOrPushRegister:
+            case JumpIfTrueOrPushRegister:
+                return operand >> TargetBits;
+            default:
+                return -1;
+        }
+    }
+
+    public static Program compile( ExpressionList main ) {
+        return new ZoelCompiler().compile( main );
+    }
+
+    /**
+     * An equivalent Program that takes fewer instructions and fewer VM steps,
+     * while counting the same steps against each turn.
+     * @param resumes Whether the program resumes where it left off when a turn ends,
+     *                like a Do, rather than having its stack looked at, like a When
+     * @param maxStepsPerTurn The turn a program that does not resume must finish in
+     *                for its steps to be merged
+     */
+    public Program optimized( boolean resumes, int maxStepsPerTurn ) {
+        return new ZoelOptimizer( this ).optimize( resumes, maxStepsPerTurn );
+    }
+
+    /**
+     * The bit of reads() for a register of the host.
+     */
+    public static long reads( Register reg ) {
+        return 1L << reg.ordinal();
+    }
+
+    /**
+     * What the program can read: a bit for each register of the host that it reads,
+     * and ReadsHeap if it gets from the heap.  A program that reads the registers of
+     * another object, or that does anything but compute, may not give the same result
+     * when run again with the same inputs, so it reads -1.
+     */
+    private long reads() {
+        long bits = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            int operand = code[pc] >> OperandShift;
+            if (register( code[pc] ) >= 0) {
+                RegisterReference ref = registers[register( code[pc] )];
+                if (ref.who != RegisterReference.Whose.Me) return -1;
+                bits |= reads( ref.reg );
+            }
+            switch (code[pc] & OpcodeMask) {
+                case Execute:
+                    Operator op = Operator.values()[operand];
+                    if (op == Operator.Get) {
+                        bits |= ReadsHeap;
+                    } else if (! op.isPure()) {
+                        return -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * The keys that the program's Gets look up, if each is a literal that the
+     * instruction before the Get leaves on the stack, and no jump skips to the Get.
+     */
+    private Literal[] heapKeys() {
+        ArrayList<Literal> keys = new ArrayList<Literal>();
+        for (int pc = 0; pc < code.length; pc++) {
+            if ((code[pc] & OpcodeMask) != Execute
+                    || Operator.values()[code[pc] >> OperandShift] != Operator.Get) continue;
+            if (pc == 0 || isJumpedTo( pc )) return null;
+            switch (code[pc-1] & OpcodeMask) {
+                case PokeLiteral:
+                case PokeNumber:
+                case PushLiteral:
+                    keys.add( literals[code[pc-1] >> OperandShift] );
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return keys.toArray( new Literal[keys.size()] );
+    }
+
+    private boolean isJumpedTo( int pc ) {
+        for (int from = 0; from < code.length; from++) {
+            switch (code[from] & OpcodeMask) {
+                case Jump:
+                case JumpIfFalse:
+                case JumpIfTrue:
+                case JumpIfFalseOrPushRegister:
+                case JumpIfTrueOrPushRegister:
+                    if (target( code[from] ) == pc) return true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private boolean readOnly() {
+        for (int pc = 0; pc < code.length; pc++) {
+            if ((code[pc] & OpcodeMask) != Execute) continue;
+            Operator op = Operator.values()[code[pc] >> OperandShift];
+            if (op != Operator.Get && ! op.isPure()) return false;
+        }
+        return true;
+    }
+
+    public String toString() {
+        String msg = "";
+        for (int pc = 0; pc < code.length; pc++) {
+            int operand = code[pc] >> OperandShift;
+            msg += ((code[pc] & StepStart) != 0) ? "*" : ((code[pc] & InnerStep) != 0) ? "+" : " ";
+            msg += String.format( "%4d ", pc );
+            int opcode = code[pc] & OpcodeMask;
+            msg += opcodeName( opcode );
+            switch (opcode) {
+                case PokeLiteral:
+                case PokeNumber:
+                case PushLiteral:  msg += " " + literals[operand]; break;
+                case PokeRegister:
+                case PushRegister: msg += " " + registers[operand]; break;
+                case JumpIfFalseOrPushRegister:
+                case JumpIfTrueOrPushRegister:
+                    msg += " " + target( code[pc] ) + " " + registers[register( code[pc] )];
+                    break;
+                case Jump:
+                case JumpIfFalse:
+                case JumpIfTrue:   msg += " " + operand; break;
+                case Execute:      msg += " " + Operator.values()[operand]; break;
+                default:           break;
+            }
+            msg += "\n";
+        }
+        return msg;
+    }
+
+    /**
+     * @return The name of an opcode, or "?" if it is not one
+     */
+    static String opcodeName( int opcode ) {
+        switch (opcode) {
+            case Nop:                       return "Nop";
+            case PokeLiteral:               return "PokeLiteral";
+            case PokeRegister:              return "PokeRegister";
+            case PushZero:                  return "PushZero";
+            case Jump:                      return "Jump";
+            case JumpIfFalse:               return "JumpIfFalse";
+            case JumpIfTrue:                return "JumpIfTrue";
+            case Execute:                   return "Execute";
+            case Exit:                      return "Exit";
+            case PokeNumber:                return "PokeNumber";
+            case PushRegister:              return "PushRegister";
+            case PushLiteral:               return "PushLiteral";
+            case JumpIfFalseOrPushRegister: return "JumpIfFalseOrPushRegister";
+            case JumpIfTrueOrPushRegister:  return "JumpIfTrueOrPushRegister";
+            default:                        return "?";
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package org.holtz.zoe.zoel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A <code>Program</code> composed into a tree of <code>MethodHandle</code>s, for
+ * conditions evaluated so often that interpreting them is worth avoiding.
+ * Each instruction becomes a handle that takes the host and the stack slots as
+ * arguments and calls the handle of the instruction after it, so HotSpot can
+ * inline the register reads and operators of the whole program.
+ * Only programs that a <code>ZoelVM</code> would run to the end within one turn,
+ * computing only on numbers, can be composed.  Their stack depth at each
+ * instruction is fixed, so each slot can be an argument.
+ * @author Brian Holtz
+ */
+public class ProgramHandle {
+    // More slots than this is not worth a handle of so many arguments
+    private static final int MaxDepth = 16;
+
+    private static final MethodHandles.Lookup Lookup = MethodHandles.lookup();
+    private static final MethodHandle GetNumber = virtual( ZoelVMHost.class, "getNumber",
+        MethodType.methodType( double.class, RegisterReference.class ));
+    private static final MethodHandle IsTrue = operator( "isTrue", boolean.class, 1 );
+    private static final MethodHandle Top = MethodHandles.identity( double.class );
+
+    private final MethodHandle handle;
+    // The most steps the program can take, which must fit in the host's turn
+    public final int maxSteps;
+
+    private ProgramHandle( MethodHandle theHandle, int theMaxSteps ) {
+        handle = theHandle;
+        maxSteps = theMaxSteps;
+    }
+
+    /**
+     * Run the program to the end.
+     * @return Whether the top of the stack is true, as <code>ZoelVM.peekIsTrue()</code> would be
+     */
+    public boolean isTrue( ZoelVMHost host ) {
+        try {
+            return (double)handle.invokeExact( host ) != 0;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * @return The composed program, or null if it cannot be composed
+     */
+    public static ProgramHandle compose( Program program ) {
+        int[] code = program.code;
+        int n = code.length;
+        // Stack depth on reaching each instruction, or -1 if it is unreachable
+        int[] depth = new int[n];
+        Arrays.fill( depth, -1 );
+        depth[0] = 0;
+        // Jumps only go forward, so every way into an instruction is seen before it
+        for (int pc = 0; pc < n; pc++) {
+            int d = depth[pc];
+            if (d < 0) continue;
+            int operand = code[pc] >> Program.OperandShift;
+            switch (code[pc] & Program.OpcodeMask) {
+                case Program.Nop:
+                    if (! flow( depth, pc + 1, d )) return null;
+                    break;
+                case Program.PokeLiteral:
+                case Program.PokeNumber:
+                    if (! (program.literals[operand] instanceof Number)) return null;
+                    if (! flow( depth, pc + 1, Math.max( d, 1 ))) return null;
+                    break;
+                case Program.PokeRegister:
+                    if (program.registers[operand].reg.isLocation()) return null;
+                    if (! flow( depth, pc + 1, Math.max( d, 1 ))) return null;
+                    break;
+                case Program.PushZero:
+                    if (! flow( depth, pc + 1, d + 1 )) return null;
+                    break;
+                case Program.PushLiteral:
+                    if (! (program.literals[operand] instanceof Number)) return null;
+                    if (! flow( depth, pc + 1, d + 1 )) return null;
+                    break;
+                case Program.PushRegister:
+                    if (program.registers[operand].reg.isLocation()) return null;
+                    if (! flow( depth, pc + 1, d + 1 )) return null;
+                    break;
+                case Program.JumpIfFalseOrPushRegister:
+                case Program.JumpIfTrueOrPushRegister:
+                    int target = Program.target( code[pc] );
+                    if (program.registers[Program.register( code[pc] )].reg.isLocation()) return null;
+                    if (target <= pc || ! flow( depth, target, d )) return null;
+                    if (! flow( depth, pc + 1, d + 1 )) return null;
+                    break;
+                case Program.Jump:
+                    if (operand <= pc || ! flow( depth, operand, d )) return null;
+                    break;
+                case Program.JumpIfFalse:
+                case Program.JumpIfTrue:
+                    if (operand <= pc || ! flow( depth, operand, d )) return null;
+                    if (! flow( depth, pc + 1, d )) return null;
+                    break;
+                case Program.Execute:
+                    int after = depthAfter( Operator.values()[operand], d );
+                    if (after < 0 || ! flow( depth, pc + 1, after )) return null;
+                    break;
+                case Program.Exit:
+                    break;
+                default:
+                    return null;
+            }
+        }
+        // Compose backward, so the handle of each instruction's successors already exists
+        MethodHandle[] handles = new MethodHandle[n];
+        int[] steps = new int[n];
+        for (int pc = n - 1; pc >= 0; pc--) {
+            int d = depth[pc];
+            if (d < 0) continue;
+            int operand = code[pc] >> Program.OperandShift;
+            int opcode = code[pc] & Program.OpcodeMask;
+            MethodHandle next = (pc + 1 < n) ? handles[pc+1] : null;
+            int nextSteps = (pc + 1 < n) ? steps[pc+1] : 0;
+            switch (opcode) {
+                case Program.Nop:
+                    handles[pc] = next;
+                    break;
+                case Program.PokeLiteral:
+                case Program.PokeNumber:
+                    handles[pc] = replaceTop( next, d, constant( program.literals[operand], d ));
+                    break;
+                case Program.PokeRegister:
+                    handles[pc] = replaceTop( next, d, reading( program.registers[operand], d ));
+                    break;
+                case Program.PushZero:
+                    handles[pc] = MethodHandles.insertArguments( next, d + 1, 0.0 );
+                    break;
+                case Program.PushLiteral:
+                    handles[pc] = push( next, d, constant( program.literals[operand], d + 1 ));
+                    break;
+                case Program.PushRegister:
+                    handles[pc] = push( next, d, reading( program.registers[operand], d + 1 ));
+                    break;
+                case Program.JumpIfFalseOrPushRegister:
+                case Program.JumpIfTrueOrPushRegister:
+                    MethodHandle pushed = push( next, d,
+                        reading( program.registers[Program.register( code[pc] )], d + 1 ));
+                    MethodHandle jumped = handles[Program.target( code[pc] )];
+                    handles[pc] = (opcode == Program.JumpIfFalseOrPushRegister)
+                        ? MethodHandles.guardWithTest( operands( IsTrue, d ), pushed, jumped )
+                        : MethodHandles.guardWithTest( operands( IsTrue, d ), jumped, pushed );
+                    nextSteps = Math.max( nextSteps, steps[Program.target( code[pc] )] );
+                    break;
+                case Program.Jump:
+                    handles[pc] = handles[operand];
+                    nextSteps = steps[operand];
+                    break;
+                case Program.JumpIfFalse:
+                    handles[pc] = MethodHandles.guardWithTest(
+                        operands( IsTrue, d ), next, handles[operand] );
+                    nextSteps = Math.max( nextSteps, steps[operand] );
+                    break;
+                case Program.JumpIfTrue:
+                    handles[pc] = MethodHandles.guardWithTest(
+                        operands( IsTrue, d ), handles[operand], next );
+                    nextSteps = Math.max( nextSteps, steps[operand] );
+                    break;
+                case Program.Execute:
+                    handles[pc] = execute( Operator.values()[operand], next, d );
+                    break;
+                case Program.Exit:
+                    handles[pc] = operands( Top, d );
+                    nextSteps = 0;
+                    break;
+                default:
+                    return null;
+            }
+            // The step that exits is not counted against a turn
+            boolean countsAsStep = (code[pc] & (Program.StepStart | Program.InnerStep)) != 0
+                && opcode != Program.Exit;
+            steps[pc] = nextSteps + (countsAsStep ? 1 : 0);
+        }
+        return new ProgramHandle( handles[0], steps[0] );
+    }
+
+    // A handle of the host and d slots that gives a number literal
+    private static MethodHandle constant( Literal literal, int d ) {
+        return MethodHandles.dropArguments(
+            MethodHandles.constant( double.class, ((Number)literal).val ), 0, slotTypes( d ));
+    }
+
+    // A handle of the host and d slots that reads a register of the host
+    private static MethodHandle reading( RegisterReference ref, int d ) {
+        MethodHandle read = MethodHandles.insertArguments( GetNumber, 1, ref );
+        return MethodHandles.dropArguments( read, 1, slotTypes( d ).subList( 1, d + 1 ));
+    }
+
+    /**
+     * A handle of the host and d slots that pushes a value computed from the host
+     * and d + 1 slots, as PushZero and then a poke would, and continues with next.
+     */
+    private static MethodHandle push( MethodHandle next, int d, MethodHandle value ) {
+        return MethodHandles.insertArguments( replaceTop( next, d + 1, value ), d + 1, 0.0 );
+    }
+
+    // Record the stack depth on reaching an instruction, if it agrees with any other way there
+    private static boolean flow( int[] depth, int pc, int d ) {
+        if (pc >= depth.length || d > MaxDepth) return false;
+        if (depth[pc] < 0) depth[pc] = d;
+        return depth[pc] == d;
+    }
+
+    // The stack depth after an Operator, or -1 if it cannot be composed
+    private static int depthAfter( Operator op, int d ) {
+        switch (op) {
+            case Push:
+            case IfThen:
+                return d;
+            case Pop:
+            case Else:
+                // Else is binary, so it pops its arg
+                return Math.max( d - 1, 0 );
+            case Not:
+            case Negate:
+            case AbsoluteVal:
+                return Math.max( d, 1 );
+            case Or:
+            case And:
+            case Equals:
+            case GreaterThan:
+            case LessThan:
+            case Plus:
+            case Minus:
+            case Modulus:
+            case Times:
+            case DividedBy:
+                return Math.max( d - 1, 1 );
+            default:
+                // Loops, the heap, Random, output and actions are left to the VM
+                return -1;
+        }
+    }
+
+    private static MethodHandle execute( Operator op, MethodHandle next, int d ) {
+        switch (op) {
+            case Push:
+            case IfThen:
+                // Control flow is already in the Program
+                return next;
+            case Pop:
+            case Else:
+                if (d == 0) return next;
+                return MethodHandles.dropArguments( next, d, double.class );
+            default:
+                int arity = op.isBinary() ? 2 : 1;
+                return replaceTop( next, d,
+                    operands( operator( op.name(), double.class, arity ), d ));
+        }
+    }
+
+    /**
+     * Adapt a handle whose arguments are the top slots of the stack, deepest first,
+     * to take the host and all d slots.  Slots beyond the bottom are zero.
+     */
+    private static MethodHandle operands( MethodHandle target, int d ) {
+        int arity = target.type().parameterCount();
+        int missing = Math.max( arity - d, 0 );
+        if (missing > 0) {
+            Object[] zeros = new Object[missing];
+            Arrays.fill( zeros, 0.0 );
+            target = MethodHandles.insertArguments( target, 0, zeros );
+        }
+        int[] reorder = new int[arity - missing];
+        for (int i = 0; i < reorder.length; i++) {
+            reorder[i] = d - reorder.length + 1 + i;
+        }
+        return MethodHandles.permuteArguments( target,
+            MethodType.methodType( target.type().returnType(), slotTypes( d )), reorder );
+    }
+
+    /**
+     * A handle of the host and d slots that computes the new top of the stack
+     * from them and continues with next, as a poke or an Operator would.
+     */
+    private static MethodHandle replaceTop( MethodHandle next, int d, MethodHandle value ) {
+        // The slots that next takes below the new top
+        int keep = next.type().parameterCount() - 2;
+        // next, taking the new top first and then everything value takes
+        List<Class<?>> params = slotTypes( d );
+        params.add( 0, double.class );
+        int[] reorder = new int[keep + 2];
+        reorder[0] = 1;
+        for (int i = 0; i < keep; i++) reorder[i+1] = i + 2;
+        reorder[keep+1] = 0;
+        MethodHandle permuted = MethodHandles.permuteArguments( next,
+            MethodType.methodType( double.class, params ), reorder );
+        return MethodHandles.foldArguments( permuted, value );
+    }
+
+    // The host followed by d slots
+    private static List<Class<?>> slotTypes( int d ) {
+        List<Class<?>> types = new ArrayList<Class<?>>();
+        types.add( ZoelVMHost.class );
+        for (int i = 0; i < d; i++) types.add( double.class );
+        return types;
+    }
+
+    private static MethodHandle operator( String name, Class<?> returnType, int arity ) {
+        Class<?>[] params = new Class<?>[arity];
+        Arrays.fill( params, double.class );
+        try {
+            return Lookup.findStatic( ProgramHandle.class, name,
+                MethodType.methodType( returnType, params ));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static MethodHandle virtual( Class<?> owner, String name, MethodType type ) {
+        try {
+            return Lookup.findVirtual( owner, name, type );
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    // The Operators, as ZoelVM computes them on numbers
+
+    private static boolean isTrue( double val ) {
+        return val != 0;
+    }
+
+    private static double truth( boolean val ) {
+        return val ? 1 : 0;
+    }
+
+    private static double Or( double left, double right ) {
+        return truth( left != 0 || right != 0 );
+    }
+
+    private static double And( double left, double right ) {
+        return truth( left != 0 && right != 0 );
+    }
+
+    private static double Equals( double left, double right ) {
+        return truth( left == right );
+    }
+
+    private static double GreaterThan( double left, double right ) {
+        return truth( left > right );
+    }
+
+    private static double LessThan( double left, double right ) {
+        return truth( left < right );
+    }
+
+    private static double Plus( double left, double right ) {
+        return left + right;
+    }
+
+    private static double Minus( double left, double right ) {
+        return left - right;
+    }
+
+    private static double Modulus( double left, double right ) {
+        // prevent divide by zero
+        return (right == 0) ? 0 : left % right;
+    }
+
+    private static double Times( double left, double right ) {
+        return left * right;
+    }
+
+    private static double DividedBy( double left, double right ) {
+        // prevent divide by zero
+        return (right == 0) ? 0 : left / right;
+    }
+
+    private static double Not( double val ) {
+        return truth( val == 0 );
+    }
+
+    private static double Negate( double val ) {
+        return - val;
+    }
+
+    private static double AbsoluteVal( double val ) {
+        return Math.abs( val );
+    }
+}
@@ -14,7 +14,8 @@ public enum Register {
     Strength,
     Heading,
     /**
-     * Locations are strings encoding an XY pair: { x = 100.333, y = 200 }
+     * Locations are <code>LocationLiteral</code>s, an XY pair kept as numbers
+     * that reads as { x=100.333, y=200.000 }
      * Math operators can work on Locations.
      */
     Location,
@@ -42,6 +43,20 @@ public enum Register {
     IsFamily,
     Range;
 
+    /**
+     * Whether the register holds a Location string rather than a number.
+     */
+    public boolean isLocation() {
+        switch (this) {
+            case Location:
+            case BirthLocation:
+            case AncestralLocation:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public boolean requiresLooking() {
         return (this.ordinal() >= FeelSomething.ordinal());
     }
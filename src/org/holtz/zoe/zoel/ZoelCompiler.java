@@ -0,0 +1,207 @@
+package org.holtz.zoe.zoel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compiles an <code>ExpressionList</code> into a <code>Program</code>.
+ * Walking the tree, a VM keeps a call stack of the blocks it is in and of the
+ * operations waiting for their args.  But how that stack changes is fixed by the
+ * shape of the program, so each state it can be in between steps becomes a place
+ * in the code: a block about to evaluate its nth expression, or an operation
+ * whose arg has been evaluated.  Each state is compiled into the instructions
+ * of one step, ending with a jump to the state the step leads to.
+ * @author Brian Holtz
+ */
+class ZoelCompiler {
+    private int[] code = new int[64];
+    private Expression[] sources = new Expression[64];
+    private int size;
+    private ArrayList<Literal> literals = new ArrayList<Literal>();
+    private ArrayList<RegisterReference> registers = new ArrayList<RegisterReference>();
+    // Whether the next instruction emitted begins a step, and what it is compiled from
+    private boolean stepStarting;
+    private Expression source;
+    // The last unconditional jump, which is dropped if it jumps to the very next instruction
+    private int lastJump = -1;
+    private Label lastJumpTarget;
+
+    // A state, which jumps can refer to before its code is emitted
+    private static class Label {
+        int position = -1;
+        int[] jumps = new int[2];
+        int numJumps;
+    }
+
+    Program compile( ExpressionList main ) {
+        Label end = new Label();
+        compile( main, end );
+        startStep( end, main );
+        emit( Program.Exit, 0 );
+        return new Program( main, Arrays.copyOf( code, size ),
+            literals.toArray( new Literal[literals.size()] ),
+            registers.toArray( new RegisterReference[registers.size()] ),
+            Arrays.copyOf( sources, size ));
+    }
+
+    /**
+     * Compile a block.
+     * @param below The state once the block is popped off the call stack
+     */
+    private void compile( ExpressionList list, Label below ) {
+        int n = list.size();
+        // at[i] is the state of being about to evaluate the ith expression
+        Label[] at = new Label[n + 1];
+        for (int i = 0; i <= n; i++) at[i] = new Label();
+        for (int i = 0; i < n; i++) {
+            Expression expr = list.get( i );
+            startStep( at[i], expr );
+            // A block is popped in the same step that evaluates its last expression,
+            // unless that expression pushed a block or operation of its own
+            Label next = endsAt( list, i + 1 ) ? below : at[i+1];
+            if (expr == null) {
+                // Just like the end of the block
+                jump( below );
+            } else if (expr instanceof ExpressionList) {
+                compile( (ExpressionList)expr, at[i+1] );
+            } else if (expr instanceof Operation) {
+                // While repeats itself, and IfThen skips any Else after it
+                Label nextPastElse = null;
+                Label donePastElse = null;
+                if (i + 1 < n && isElse( list.get( i + 1 ))) {
+                    nextPastElse = endsAt( list, i + 2 ) ? below : at[i+2];
+                    donePastElse = at[i+2];
+                }
+                compile( (Operation)expr, next, at[i+1], at[i], nextPastElse, donePastElse );
+            } else {
+                poke( (Value)expr );
+                jump( next );
+            }
+        }
+        // A step that just pops the block
+        startStep( at[n], (n > 0) ? list.get( n - 1 ) : list );
+        jump( below );
+    }
+
+    // Whether a block has nothing more to evaluate at index i
+    private static boolean endsAt( ExpressionList list, int i ) {
+        return i >= list.size() || list.get( i ) == null;
+    }
+
+    private static boolean isElse( Expression expr ) {
+        return expr instanceof Operation && ((Operation)expr).op == Operator.Else;
+    }
+
+    /**
+     * Compile an operation, which begins within the current step.
+     * @param next     The state after the current step, if the operation finishes within it
+     * @param done     The state after the step that finishes the operation, if its arg
+     *                 took steps of its own
+     * @param again    Where a While goes back to, or null if it cannot repeat
+     * @param nextPastElse Where an IfThen skips to within the step, or null if no Else follows it
+     * @param donePastElse Where an IfThen skips to after its own step
+     */
+    private void compile( Operation operation, Label next, Label done, Label again,
+            Label nextPastElse, Label donePastElse ) {
+        Operator op = operation.op;
+        if (operation.arg == null) {
+            Value implicitArg = op.implicitArg();
+            if (implicitArg != null) poke( implicitArg );
+            emit( Program.Execute, op.ordinal() );
+            jump( after( op, next, again, nextPastElse ));
+            return;
+        }
+        // Some operators can short-circuit arg evaluation
+        switch (op) {
+            case IfThen:
+            case While:
+            case And:
+                jump( Program.JumpIfFalse, next );
+                break;
+            case Else:
+            case Or:
+                jump( Program.JumpIfTrue, next );
+                break;
+            default:
+                break;
+        }
+        // Binary operators need to make room on stack for arg
+        if (op.isBinary()) emit( Program.PushZero, 0 );
+        Label argDone = new Label();
+        if (operation.arg instanceof ExpressionList) {
+            compile( (ExpressionList)operation.arg, argDone );
+        } else if (operation.arg instanceof Operation) {
+            compile( (Operation)operation.arg, argDone, argDone, null, null, null );
+        } else {
+            poke( (Value)operation.arg );
+        }
+        startStep( argDone, operation );
+        emit( Program.Execute, op.ordinal() );
+        jump( after( op, done, again, donePastElse ));
+    }
+
+    private static Label after( Operator op, Label otherwise, Label again, Label pastElse ) {
+        if (op == Operator.While && again != null) return again;
+        if (op == Operator.IfThen && pastElse != null) return pastElse;
+        return otherwise;
+    }
+
+    private void poke( Value val ) {
+        if (val instanceof RegisterReference) {
+            emit( Program.PokeRegister, registers.size() );
+            registers.add( (RegisterReference)val );
+        } else {
+            emit( Program.PokeLiteral, literals.size() );
+            literals.add( (Literal)val );
+        }
+    }
+
+    private void startStep( Label state, Expression stepSource ) {
+        // Every step needs an instruction of its own to be counted
+        if (stepStarting) emit( Program.Nop, 0 );
+        place( state );
+        stepStarting = true;
+        source = stepSource;
+    }
+
+    private void place( Label label ) {
+        if (lastJump == size - 1 && lastJumpTarget == label
+                && (code[lastJump] & Program.StepStart) == 0) {
+            // Fall through instead
+            size--;
+            label.numJumps--;
+            lastJump = -1;
+        }
+        label.position = size;
+        for (int i = 0; i < label.numJumps; i++) {
+            code[label.jumps[i]] |= size << Program.OperandShift;
+        }
+    }
+
+    private int emit( int opcode, int operand ) {
+        if (size == code.length) {
+            code = Arrays.copyOf( code, size * 2 );
+            sources = Arrays.copyOf( sources, size * 2 );
+        }
+        code[size] = opcode | (operand << Program.OperandShift)
+            | (stepStarting ? Program.StepStart : 0);
+        sources[size] = source;
+        stepStarting = false;
+        return size++;
+    }
+
+    private void jump( Label target ) {
+        lastJump = jump( Program.Jump, target );
+        lastJumpTarget = target;
+    }
+
+    private int jump( int opcode, Label target ) {
+        if (target.position >= 0) return emit( opcode, target.position );
+        int pc = emit( opcode, 0 );
+        if (target.numJumps == target.jumps.length) {
+            target.jumps = Arrays.copyOf( target.jumps, target.numJumps * 2 );
+        }
+        target.jumps[target.numJumps++] = pc;
+        return pc;
+    }
+}
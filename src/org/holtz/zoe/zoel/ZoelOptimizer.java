@@ -0,0 +1,521 @@
+package org.holtz.zoe.zoel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Rewrites a <code>Program</code> to do the same with fewer instructions and steps.
+ * Mutation leaves plenty of dead weight in evolved code: arithmetic on constants,
+ * <code>Push</code> without an arg, <code>Not Not</code>, and <code>Else</code>
+ * blocks behind a condition that is always true.
+ * <p>
+ * A step that only computes on the stack is merged into the step before it, since
+ * nothing outside the VM can tell whether it ran at the end of one turn or at the start
+ * of the next.  A merged step still counts as all the steps it replaced, so turns end
+ * exactly where they would have.  Then constants are folded, branches on constants
+ * become jumps, and instructions that cannot change the outcome are dropped.
+ * The genome itself is untouched, so mutation and display see the code as written.
+ * @author Brian Holtz
+ */
+class ZoelOptimizer {
+    private static final int Flags = Program.StepStart | Program.InnerStep;
+    private static final Operator[] Operators = Operator.values();
+
+    private final Program program;
+    private int[] code;
+    private ArrayList<Literal> literals;
+    // Whether each instruction can be reached, and whether anything jumps to it
+    private boolean[] reachable;
+    private boolean[] targeted;
+
+    ZoelOptimizer( Program theProgram ) {
+        program = theProgram;
+        code = theProgram.code.clone();
+        literals = new ArrayList<Literal>( Arrays.asList( theProgram.literals ));
+    }
+
+    Program optimize( boolean resumes, int maxStepsPerTurn ) {
+        analyze();
+        // If the stack is looked at when a turn ends, the turn must not
+        // end in the middle of a merged step
+        if (resumes || maxSteps() <= maxStepsPerTurn) mergeSteps();
+        do {
+            analyze();
+        } while (rewrite());
+        return compact();
+    }
+
+    private int opcode( int pc ) {
+        return code[pc] & Program.OpcodeMask;
+    }
+
+    private int operand( int pc ) {
+        return code[pc] >> Program.OperandShift;
+    }
+
+    private int flags( int pc ) {
+        return code[pc] & Flags;
+    }
+
+    private Operator operator( int pc ) {
+        return Operators[operand( pc )];
+    }
+
+    private boolean isExecute( int pc, Operator op ) {
+        return pc >= 0 && opcode( pc ) == Program.Execute && operator( pc ) == op;
+    }
+
+    private boolean jumps( int pc ) {
+        int opcode = opcode( pc );
+        return opcode == Program.Jump || opcode == Program.JumpIfFalse || opcode == Program.JumpIfTrue;
+    }
+
+    // Whether control can pass from pc to the instruction after it
+    private boolean fallsThrough( int pc ) {
+        int opcode = opcode( pc );
+        return opcode != Program.Jump && opcode != Program.Exit;
+    }
+
+    private void analyze() {
+        int n = code.length;
+        reachable = new boolean[n];
+        targeted = new boolean[n];
+        int[] work = new int[n];
+        int size = 0;
+        reachable[0] = true;
+        work[size++] = 0;
+        while (size > 0) {
+            int pc = work[--size];
+            if (jumps( pc )) {
+                int target = operand( pc );
+                targeted[target] = true;
+                if (! reachable[target]) {
+                    reachable[target] = true;
+                    work[size++] = target;
+                }
+            }
+            if (fallsThrough( pc ) && pc + 1 < n && ! reachable[pc+1]) {
+                reachable[pc+1] = true;
+                work[size++] = pc + 1;
+            }
+        }
+    }
+
+    // The most steps the program can take, or MAX_VALUE if it can loop
+    private int maxSteps() {
+        int n = code.length;
+        int[] steps = new int[n + 1];
+        for (int pc = n - 1; pc >= 0; pc--) {
+            if (! reachable[pc]) continue;
+            int most = fallsThrough( pc ) ? steps[pc+1] : 0;
+            if (jumps( pc )) {
+                if (operand( pc ) <= pc) return Integer.MAX_VALUE;
+                most = Math.max( most, steps[operand( pc )] );
+            }
+            // The step that exits is not counted against a turn
+            boolean counts = flags( pc ) != 0 && opcode( pc ) != Program.Exit;
+            steps[pc] = most + (counts ? 1 : 0);
+        }
+        return steps[0];
+    }
+
+    // Whether an instruction only computes on the stack
+    private boolean isPure( int pc ) {
+        switch (opcode( pc )) {
+            case Program.Nop:
+            case Program.PokeLiteral:
+            case Program.PokeNumber:
+            case Program.PushZero:
+            case Program.Jump:
+            case Program.JumpIfFalse:
+            case Program.JumpIfTrue:
+                return true;
+            case Program.Execute:
+                return operator( pc ).isPure();
+            default:
+                // Registers change from one turn to the next
+                return false;
+        }
+    }
+
+    /**
+     * Merge each pure step into the steps that lead to it, if every way into it is
+     * forward, from a step that cannot end the turn.  A loop still takes a step
+     * each time round, so the VM can always end a turn in it.
+     */
+    private void mergeSteps() {
+        int n = code.length;
+        // Every step is a run of instructions beginning with a StepStart
+        int[] stepOf = new int[n];
+        boolean[] mergeable = new boolean[n];
+        boolean[] mayEndTurn = new boolean[n];
+        int step = 0;
+        for (int pc = 0; pc < n; pc++) {
+            if ((code[pc] & Program.StepStart) != 0) {
+                step = pc;
+                mergeable[step] = (pc > 0);
+            }
+            stepOf[pc] = step;
+            if (! isPure( pc )) mergeable[step] = false;
+            if (opcode( pc ) == Program.Execute
+                    && operator( pc ).whetherTurnContinues() != ZoelVM.Turn.Continues) {
+                mayEndTurn[step] = true;
+            }
+        }
+        for (int pc = 0; pc < n; pc++) {
+            if (! reachable[pc]) continue;
+            int[] successors = { jumps( pc ) ? operand( pc ) : -1,
+                                 (fallsThrough( pc ) && pc + 1 < n) ? pc + 1 : -1 };
+            for (int to : successors) {
+                if (to < 0 || (code[to] & Program.StepStart) == 0) continue;
+                if (to <= pc || mayEndTurn[stepOf[pc]]) mergeable[to] = false;
+            }
+        }
+        for (int pc = 0; pc < n; pc++) {
+            if (mergeable[pc] && reachable[pc]) {
+                code[pc] = (code[pc] & ~Program.StepStart) | Program.InnerStep;
+            }
+        }
+    }
+
+    /**
+     * The instruction that control always goes to straight after pc, skipping Nops,
+     * or -1 if there is another way into it or a step starts there.
+     */
+    private int following( int pc ) {
+        if (pc < 0 || ! fallsThrough( pc ) || jumps( pc )) return -1;
+        for (int next = pc + 1; next < code.length; next++) {
+            if (targeted[next] || (code[next] & Program.StepStart) != 0) return -1;
+            if (opcode( next ) != Program.Nop) return next;
+        }
+        return -1;
+    }
+
+    private boolean rewrite() {
+        boolean changed = false;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (reachable[pc] && rewrite( pc )) changed = true;
+        }
+        return changed;
+    }
+
+    private boolean rewrite( int a ) {
+        int b = following( a );
+        int c = following( b );
+        switch (opcode( a )) {
+            case Program.Execute:
+                switch (operator( a )) {
+                    case Push:
+                    case IfThen:
+                    case While:
+                        // Their control flow is already compiled into jumps
+                        remove( a );
+                        return true;
+                    default:
+                        break;
+                }
+                // Not Not of a truth value is the same truth value
+                if (isTruth( operator( a )) && isExecute( b, Operator.Not )
+                        && isExecute( c, Operator.Not )) {
+                    remove( b );
+                    remove( c );
+                    return true;
+                }
+                return false;
+            case Program.PushZero:
+                // Pushing something only to pop it
+                if (isPop( b )) {
+                    remove( a );
+                    remove( b );
+                    return true;
+                }
+                return false;
+            case Program.PokeLiteral:
+            case Program.PokeNumber:
+                return rewriteConstant( a, b, c, following( c ));
+            default:
+                return false;
+        }
+    }
+
+    private boolean rewriteConstant( int a, int b, int c, int d ) {
+        if (b < 0) return false;
+        Literal val = constant( a );
+        switch (opcode( b )) {
+            case Program.PokeLiteral:
+            case Program.PokeNumber:
+            case Program.PokeRegister:
+                // Replaced before anything could see it
+                remove( a );
+                return true;
+            case Program.JumpIfFalse:
+                if (val.isTrue()) {
+                    remove( b );
+                } else {
+                    retag( b, Program.Jump );
+                }
+                return true;
+            case Program.JumpIfTrue:
+                if (val.isTrue()) {
+                    retag( b, Program.Jump );
+                } else {
+                    remove( b );
+                }
+                return true;
+            case Program.PushZero:
+                // A binary operator with constant operands
+                if (c < 0 || d < 0 || ! isConstant( c ) || opcode( d ) != Program.Execute) {
+                    return false;
+                }
+                if (operator( d ) != Operator.Else) {
+                    Literal folded = fold( operator( d ), val, constant( c ));
+                    if (folded == null) return false;
+                    pokeNumber( a, folded );
+                }
+                // Else just pops its arg
+                remove( b );
+                remove( c );
+                remove( d );
+                return true;
+            case Program.Execute:
+                if (isPop( b )) {
+                    remove( a );
+                    return true;
+                }
+                Literal folded = fold( operator( b ), val );
+                if (folded == null) return false;
+                pokeNumber( a, folded );
+                remove( b );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isConstant( int pc ) {
+        return opcode( pc ) == Program.PokeLiteral || opcode( pc ) == Program.PokeNumber;
+    }
+
+    private Literal constant( int pc ) {
+        return literals.get( operand( pc ));
+    }
+
+    // Else is binary, so it pops its arg just as Pop does
+    private boolean isPop( int pc ) {
+        return isExecute( pc, Operator.Pop ) || isExecute( pc, Operator.Else );
+    }
+
+    // Whether an Operator always leaves 1 or 0
+    private static boolean isTruth( Operator op ) {
+        switch (op) {
+            case Not:
+            case And:
+            case Or:
+            case Equals:
+            case LessThan:
+            case GreaterThan:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Make an instruction do nothing, but still start or count as a step if it did
+    private void remove( int pc ) {
+        code[pc] = Program.Nop | flags( pc );
+    }
+
+    private void retag( int pc, int opcode ) {
+        code[pc] = opcode | flags( pc ) | (operand( pc ) << Program.OperandShift);
+    }
+
+    // Poke a folded value, which is a number computed like any other, not a Literal of the program
+    private void pokeNumber( int pc, Literal val ) {
+        code[pc] = Program.PokeNumber | flags( pc ) | (literals.size() << Program.OperandShift);
+        literals.add( val );
+    }
+
+    // A unary Operator on a constant, as ZoelVM computes it, or null if it cannot be folded
+    private static Literal fold( Operator op, Literal val ) {
+        switch (op) {
+            case Not:
+                return new Number( ! val.isTrue() );
+            case Negate:
+                return new Number( - val.toNumber() );
+            case AbsoluteVal:
+                return new Number( Math.abs( val.toNumber() ));
+            default:
+                return null;
+        }
+    }
+
+    // A binary Operator on constants, as ZoelVM computes it, or null if it cannot be folded
+    private static Literal fold( Operator op, Literal left, Literal right ) {
+        double l = left.toNumber();
+        double r = right.toNumber();
+        switch (op) {
+            case Or:
+                return new Number( left.isTrue() || right.isTrue() );
+            case And:
+                return new Number( left.isTrue() && right.isTrue() );
+            case Equals:
+                return new Number( l == r );
+            case GreaterThan:
+                return new Number( l > r );
+            case LessThan:
+                return new Number( l < r );
+            case Plus:
+                return new Number( l + r );
+            case Minus:
+                // Two strings might be Locations, whose distance depends on the world
+                if (left instanceof StringLiteral && right instanceof StringLiteral) return null;
+                return new Number( l - r );
+            case Times:
+                return new Number( l * r );
+            case Modulus:
+                return new Number( (r == 0) ? 0 : l % r );
+            case DividedBy:
+                return new Number( (r == 0) ? 0 : l / r );
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Drop unreachable instructions and Nops that do not begin or count as a step,
+     * and point jumps at where the instructions they jumped to went.
+     */
+    private Program compact() {
+        analyze();
+        int n = code.length;
+        // Count a merged step on the instruction after its Nop, if nothing else leads there
+        for (int pc = 0; pc + 1 < n; pc++) {
+            if (reachable[pc] && code[pc] == (Program.Nop | Program.InnerStep)
+                    && ! targeted[pc+1] && flags( pc + 1 ) == 0) {
+                code[pc+1] |= Program.InnerStep;
+                code[pc] = Program.Nop;
+            }
+        }
+        boolean[] keep = new boolean[n];
+        for (int pc = 0; pc < n; pc++) {
+            keep[pc] = reachable[pc] && code[pc] != Program.Nop;
+        }
+        // A Jump to the next instruction kept is not needed
+        for (int pc = n - 1; pc >= 0; pc--) {
+            if (! keep[pc] || code[pc] != (Program.Jump | (operand( pc ) << Program.OperandShift))) {
+                continue;
+            }
+            int next = pc + 1;
+            while (next < n && ! keep[next]) next++;
+            int target = operand( pc );
+            while (target < n && ! keep[target]) target++;
+            if (target == next) keep[pc] = false;
+        }
+        // Where each instruction goes, or where the next one kept goes
+        int[] newIndex = new int[n];
+        int size = 0;
+        for (int pc = 0; pc < n; pc++) {
+            newIndex[pc] = size;
+            if (keep[pc]) size++;
+        }
+        int[] newCode = new int[size];
+        Expression[] newSources = new Expression[size];
+        for (int pc = 0; pc < n; pc++) {
+            if (! keep[pc]) continue;
+            int instruction = code[pc];
+            if (jumps( pc )) {
+                instruction = (instruction & ((1 << Program.OperandShift) - 1))
+                    | (newIndex[operand( pc )] << Program.OperandShift);
+            }
+            newCode[newIndex[pc]] = instruction;
+            newSources[newIndex[pc]] = program.sources[pc];
+        }
+        return fuse( newCode, newSources );
+    }
+
+    /**
+     * Fuse each run of instructions that has a superinstruction into it.
+     * A run is only fused if a VM always executes it whole: nothing jumps into
+     * its middle, and no step begins or is counted there.
+     */
+    private Program fuse( int[] code, Expression[] sources ) {
+        int n = code.length;
+        boolean[] targeted = new boolean[n + 1];
+        for (int pc = 0; pc < n; pc++) {
+            if (isJump( code[pc] )) targeted[Program.target( code[pc] )] = true;
+        }
+        // How many instructions each fused instruction replaces, or 0 for those it absorbs
+        int[] length = new int[n];
+        int[] fused = code.clone();
+        for (int pc = 0; pc < n; pc += length[pc]) {
+            length[pc] = 1;
+            int opcode = code[pc] & Program.OpcodeMask;
+            int operand = code[pc] >> Program.OperandShift;
+            if ((opcode == Program.JumpIfFalse || opcode == Program.JumpIfTrue)
+                    && absorbs( code, targeted, pc + 1, Program.PushZero )
+                    && absorbs( code, targeted, pc + 2, Program.PokeRegister )) {
+                int register = code[pc+2] >> Program.OperandShift;
+                // Both must fit in the operand
+                if (operand < (1 << Program.TargetBits)
+                        && register < (1 << (31 - Program.OperandShift - Program.TargetBits))) {
+                    int superOpcode = (opcode == Program.JumpIfFalse)
+                        ? Program.JumpIfFalseOrPushRegister : Program.JumpIfTrueOrPushRegister;
+                    fused[pc] = superOpcode | (code[pc] & Flags)
+                        | ((operand | (register << Program.TargetBits)) << Program.OperandShift);
+                    length[pc] = 3;
+                }
+            } else if (opcode == Program.PushZero && pc + 1 < n) {
+                int next = code[pc+1] >> Program.OperandShift;
+                if (absorbs( code, targeted, pc + 1, Program.PokeRegister )) {
+                    fused[pc] = Program.PushRegister | (code[pc] & Flags) | (next << Program.OperandShift);
+                    length[pc] = 2;
+                } else if (absorbs( code, targeted, pc + 1, Program.PokeLiteral )) {
+                    fused[pc] = Program.PushLiteral | (code[pc] & Flags) | (next << Program.OperandShift);
+                    length[pc] = 2;
+                }
+            }
+        }
+        int[] newIndex = new int[n + 1];
+        int size = 0;
+        for (int pc = 0; pc < n; pc++) {
+            newIndex[pc] = size;
+            if (length[pc] > 0) size++;
+        }
+        newIndex[n] = size;
+        int[] newCode = new int[size];
+        Expression[] newSources = new Expression[size];
+        for (int pc = 0; pc < n; pc++) {
+            if (length[pc] == 0) continue;
+            int instruction = fused[pc];
+            if (isJump( instruction )) {
+                // Targets only move down, so a packed one still fits in its bits
+                int target = Program.target( instruction );
+                instruction -= (target - newIndex[target]) << Program.OperandShift;
+            }
+            newCode[newIndex[pc]] = instruction;
+            newSources[newIndex[pc]] = sources[pc];
+        }
+        return new Program( program.main, newCode,
+            literals.toArray( new Literal[literals.size()] ),
+            program.registers, newSources );
+    }
+
+    // Whether an instruction can be absorbed into the one before it
+    private static boolean absorbs( int[] code, boolean[] targeted, int pc, int opcode ) {
+        return pc < code.length && ! targeted[pc] && (code[pc] & Flags) == 0
+            && (code[pc] & Program.OpcodeMask) == opcode;
+    }
+
+    private static boolean isJump( int instruction ) {
+        switch (instruction & Program.OpcodeMask) {
+            case Program.Jump:
+            case Program.JumpIfFalse:
+            case Program.JumpIfTrue:
+            case Program.JumpIfFalseOrPushRegister:
+            case Program.JumpIfTrueOrPushRegister:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
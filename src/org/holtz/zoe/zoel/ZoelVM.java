@@ -6,7 +6,8 @@ import org.holtz.zoe.World;
 import java.io.Serializable;
 
 /**
- * A virtual machine that executes Zoel code for a <code>ZoelVMHost</code>.
+ * A virtual machine that executes Zoel code, compiled into a <code>Program</code>,
+ * for a <code>ZoelVMHost</code>.
  * @author Brian Holtz
  */
 public class ZoelVM implements Serializable {
@@ -19,14 +20,36 @@ public class ZoelVM implements Serializable {
         Exited
     }
 
+    private static final Operator[] Operators = Operator.values();
+
     private ZoelVMHost host;
-    private Stack<CallRecord> callStack = new Stack<CallRecord>();
-    private Stack<Literal> dataStack = new Stack<Literal>();
+    private Program program;
+    // The instruction to execute next, which always begins a step
+    private int pc;
+    private DataStack dataStack = new DataStack();
+    // Steps taken by the last call to next()
+    private int stepsTaken;
+    // How many steps the last step() counts as, if the optimizer merged several into it
+    private int stepWeight;
+    // Steps of a merged step that the turn ended in the middle of, which count
+    // against the next turn just as they would have if they had not been merged
+    private int pendingSteps;
 
-    public ZoelVM( ZoelVMHost h, ExpressionList main ) {
+    public ZoelVM( ZoelVMHost h, Program main ) {
         host = h;
-        dataStack.val2PopWhenEmpty = new Number(0);
-        callStack.push( new ExpressionListCall( main ));
+        reset( main );
+    }
+
+    /**
+     * Abandon whatever was executing and start over at the beginning of main,
+     * reusing this VM's stack.
+     */
+    public ZoelVM reset( Program main ) {
+        program = main;
+        pc = 0;
+        pendingSteps = 0;
+        dataStack.clear();
+        return this;
     }
 
     public ZoelVM poke( Literal val ) {
@@ -35,13 +58,12 @@ public class ZoelVM implements Serializable {
     }
 
     private ZoelVM poke( boolean val ) {
-        int num = val ? 1 : 0;
-        dataStack.poke( new Number(num) );
+        dataStack.poke( val );
         return this;
     }
 
     private ZoelVM poke( double val ) {
-        dataStack.poke( new Number(val) );
+        dataStack.poke( val );
         return this;
     }
 
@@ -49,6 +71,13 @@ public class ZoelVM implements Serializable {
         return dataStack.peek();
     }
 
+    /**
+     * Whether the top of the stack is true, without making a Literal of it.
+     */
+    public boolean peekIsTrue() {
+        return dataStack.isTrue( 0 );
+    }
+
     public Literal pop() {
         return dataStack.pop();
     }
@@ -67,56 +96,37 @@ public class ZoelVM implements Serializable {
         return this;
     }
 
-    private Turn evaluate( ExpressionList arg ) {
-        CallRecord call = new ExpressionListCall( arg );
-        callStack.push( call );
-        return Turn.Continues;
-    }
-
-    private Turn evaluate( Literal arg ) {
-        dataStack.poke( arg  );
-        return Turn.Continues;
-    }
-
-    private Turn evaluate( Expression arg ) {
-        if (arg == null) return Turn.Continues;
-        if (World.Trace) {
-            System.out.println( host.tracePrefix() + " > "
-                + String.format( "%-30.30s", arg.toString() )
-                + "\t" + dataStack.toString( 5 ) );
+    private void evaluate( RegisterReference arg ) {
+        if (arg.reg.isLocation()) {
+            dataStack.poke( host.get( arg ));
+        } else {
+            // Most registers are numbers, which can stay unboxed
+            dataStack.poke( host.getNumber( arg ));
         }
-        Turn result = Turn.Finished;
-        if (arg instanceof ExpressionList )    result = evaluate( (ExpressionList)     arg );
-        if (arg instanceof Operation )         result = execute((Operation) arg);
-        if (arg instanceof Literal )           result = evaluate( (Literal)           arg );
-        if (arg instanceof Number )            result = evaluate( (Number)            arg );
-        if (arg instanceof RegisterReference ) result = evaluate( host.get( (RegisterReference)arg ));
-        if (World.Trace) {
-            System.out.println( host.tracePrefix() + " < " 
-                + String.format( "%-30.30s", arg.toString() )
-                + "\t" + dataStack.toString( 5 ) );
-        }
-        return result;
     }
 
     /**
      * Execute an operator. Any arguments of the operator have already
      * been evaluated as necessary and pushed onto stack.
      */
-    @SuppressWarnings("null")
     private Turn execute( Operator operator ) {
-        Literal right = null;
-        Literal left = null;
+        double right = 0;
+        double left = 0;
+        // Non-null if the operand is a string, which is only
+        // converted to a number by operators that need one
+        Literal rightString = null;
+        Literal leftString = null;
         if (operator.isBinary()) {
-            right = dataStack.pop();
-            left = dataStack.peek();
+            rightString = dataStack.string( 0 );
+            right = dataStack.value( 0 );
+            dataStack.drop();
+            leftString = dataStack.string( 0 );
+            left = dataStack.value( 0 );
         }
-        CallRecord parentCall;
         switch (operator) {
             case While:
                 // If we got here then the loop condition was true,
-                // so repeat the While expression.
-                callStack.peek().repeat();
+                // and the Program jumps back to repeat the While expression.
                 break;
             case Push:
                 // Any arg is already pushed to stack.
@@ -124,7 +134,7 @@ public class ZoelVM implements Serializable {
                 // Push could be removed from Zoel for simplicity.
                 break;
             case Pop:
-                dataStack.pop();
+                dataStack.drop();
                 break;
             case Set:
                 Literal val2Set = dataStack.pop();
@@ -136,18 +146,7 @@ public class ZoelVM implements Serializable {
             case IfThen:
                 // We only got here if the if-condition was true.
                 // TfThen's arg has already been evaluated,
-                // so the only thing to do here is skip any subsequent Else.
-                parentCall = callStack.peek();
-                if (parentCall instanceof ExpressionListCall) {
-                    ExpressionListCall parentList = (ExpressionListCall)parentCall;
-                    Expression nextExpr = parentList.peek();
-                    if (nextExpr != null && nextExpr instanceof Operation) {
-                        Operation nextOperation = (Operation)nextExpr;
-                        if (nextOperation.op == Operator.Else) {
-                            parentList.next();
-                        }
-                    }
-                }
+                // and the Program jumps past any subsequent Else.
                 break;
             // The only differences between Else and Or are:
             // 1) Else can be skipped by a previous IfThen
@@ -155,59 +154,62 @@ public class ZoelVM implements Serializable {
             case Else:
                 break;
             case Or:
-                poke( left.isTrue() || right.isTrue() );
+                poke( isTrue( left, leftString ) || isTrue( right, rightString ));
                 break;
             // The only differences between IfThen and And are:
             // 1) IfThen can skip a subsequent Else
             // 2) And converts stack top into boolean.
             case And:
-                poke( left.isTrue() && right.isTrue() );
+                poke( isTrue( left, leftString ) && isTrue( right, rightString ));
                 break;
             case Equals:
-                poke( left.toNumber() == right.toNumber() );
+                poke( number( left, leftString ) == number( right, rightString ));
                 break;
             case GreaterThan:
-                poke( left.toNumber() > right.toNumber() );
+                poke( number( left, leftString ) > number( right, rightString ));
                 break;
             case LessThan:
-                poke( left.toNumber() < right.toNumber() );
+                poke( number( left, leftString ) < number( right, rightString ));
                 break;
             case Plus:
-                poke( left.toNumber() + right.toNumber() );
+                poke( number( left, leftString ) + number( right, rightString ));
                 break;
             case Minus:
-                Point rightP = Point.parse( right.toString() );
-                Point leftP  = Point.parse(  left.toString() );
-                if (rightP != null && leftP != null) {
-                    poke( rightP.range( leftP, host.world() ));
+                // Only strings can be Locations
+                LocationLiteral rightL = LocationLiteral.from( rightString );
+                LocationLiteral leftL  = (rightL == null) ? null : LocationLiteral.from( leftString );
+                if (leftL != null) {
+                    poke( Point.range( rightL.x, rightL.y, leftL.x, leftL.y, host.world() ));
                 } else {
-                    poke( left.toNumber() - right.toNumber() );
+                    poke( number( left, leftString ) - number( right, rightString ));
                 }
                 break;
             case Modulus:
                 // prevent divide by zero
-                if (right.toNumber() == 0) {
-                    poke( new Number(0) );
+                right = number( right, rightString );
+                if (right == 0) {
+                    poke( 0 );
                 } else {
-                    poke( left.toNumber() % right.toNumber() );
+                    poke( number( left, leftString ) % right );
                 }
                 break;
             case Times:
-                poke( left.toNumber() * right.toNumber() );
+                poke( number( left, leftString ) * number( right, rightString ));
                 break;
             case DividedBy:
                 // prevent divide by zero
-                if (right.toNumber() == 0) {
-                    poke( new Number(0) );
+                right = number( right, rightString );
+                if (right == 0) {
+                    poke( 0 );
                 } else {
-                    poke( left.toNumber() / right.toNumber() );
+                    poke( number( left, leftString ) / right );
                 }
                 break;
             case Not:
-                poke( ! dataStack.peek().isTrue() );
+                poke( ! dataStack.isTrue( 0 ));
                 break;
             case Random:
-                double modulus = dataStack.pop().toNumber();
+                double modulus = dataStack.popNumber();
                 if (modulus % 1 == 0) {
                     // Modulus is itself integer, so yield integer
                     int intModulus = (int)Math.round( modulus );
@@ -218,17 +220,17 @@ public class ZoelVM implements Serializable {
                     } else if (intModulus < 0) {
                         val = - host.random().nextInt( - intModulus );
                     }
-                    dataStack.push( new Number( val ));
+                    dataStack.push( val );
                 } else {
                     // Argument is real number, so yield real number
-                    dataStack.push( new Number( host.random().nextDouble() * modulus ));
+                    dataStack.push( host.random().nextDouble() * modulus );
                 }
                 break;
             case Negate:
-                poke( - dataStack.peek().toNumber() );
+                poke( - dataStack.number( 0 ));
                 break;
             case AbsoluteVal:
-                poke( Math.abs( dataStack.peek().toNumber() ));
+                poke( Math.abs( dataStack.number( 0 )));
                 break;
             case Print:
                 System.out.println( host.tracePrefix() + " says: " + dataStack.pop() );
@@ -241,90 +243,102 @@ public class ZoelVM implements Serializable {
         return operator.whetherTurnContinues();
     }
 
-    /**
-     * Begin execution of an Operation.
-     * If it has no arg, execute its Operator.
-     * If it has an arg, push the Operator onto the call stack and
-     * evaluate the arg (if necessary).
-     */
-    private Turn execute( Operation operation ) {
-        if (operation.arg == null) {
-            evaluate( host.implicitArgOf( operation.op ) );
-            return execute( operation.op );
-        }
-        // Operation has an argument.
-        // Some operators can short-circuit arg evaluation.
-        switch (operation.op) {
-            case IfThen:
-            case While:
-            case And:
-                // If the dataStack top is false, do not eval arg
-                if (! dataStack.peek().isTrue()) {
-                    // Any subsequent Else will see what IfThen saw
-                    // on the top of the dataStack and do the
-                    // right thing -- i.e. fall out of this switch
-                    // statement and evaluate its arg below.
-                    // IfThen will only execute() if the if-condition
-                    // was true. When it execute()s, it knows to skip
-                    // any subsequent Else statement, because that
-                    // Else could be confounded by how the stack was
-                    // changed by evaluation of IfThen's arg.
-                    return Turn.Continues;
-                }
-                break;
-            case Else:
-            case Or:
-                // If the dataStack top is true, do not eval arg
-                if (dataStack.peek().isTrue()) return Turn.Continues;
-                break;
-            default:
-                break;
-        }
-        // Binary operators need to make room on stack for arg
-        if (operation.op.isBinary()) {
-            dataStack.push( new Number( 0 ));
-        }
-        // Push a reminder to finish this statement after arg is evaluated
-        CallRecord call = new OperationCall( operation );
-        callStack.push( call );
-        return evaluate( operation.arg );
+    private static double number( double val, Literal string ) {
+        return (string == null) ? val : string.toNumber();
     }
 
-    // Resume and complete execution of an Operation
-    private Turn execute( OperationCall operationCall ) {
-        if (World.Trace) {
-            System.out.println( host.tracePrefix() + " << "
-                + String.format( "%-30.30s", operationCall.operation.toString() )
-                + "\t" + dataStack.toString( 5 ) );
-        }
-        // Pop the call stack first because e.g. IfThen wants to manipulate parent.
-        callStack.pop();
-        return execute( operationCall.operation.op );
+    private static boolean isTrue( double val, Literal string ) {
+        return (string == null) ? val != 0 : string.isTrue();
     }
 
-    // Evaluate the next expression in an ExpressionList
-    private Turn execute( ExpressionListCall expressionListCall ) {
-        Expression expression = expressionListCall.next();
-        // Defend against empty StatementLists
-        if (expression == null) {
-            callStack.pop();
-            return Turn.Continues;
-        }
-        Turn result = evaluate( expression );
-        // If the StatementList is the top of the stack and it's done,
-        if (callStack.peek() == expressionListCall && expressionListCall.peek() == null) {
-            // then pop it to save a execute()
-            callStack.pop();
-        }
+    // Execute the instructions of one step
+    private Turn step() {
+        int[] code = program.code;
+        Expression source = program.sources[pc];
+        // The tree walker had nothing to trace once the program ended
+        if (World.Trace && (code[pc] & Program.OpcodeMask) != Program.Exit) trace( " > ", source );
+        Turn result = Turn.Continues;
+        stepWeight = 1;
+        do {
+            int instruction = code[pc];
+            int operand = instruction >> Program.OperandShift;
+            switch (instruction & Program.OpcodeMask) {
+                case Program.Nop:
+                    pc++;
+                    break;
+                case Program.PokeLiteral:
+                    dataStack.poke( program.literals[operand] );
+                    pc++;
+                    break;
+                case Program.PokeRegister:
+                    evaluate( program.registers[operand] );
+                    pc++;
+                    break;
+                case Program.PokeNumber:
+                    dataStack.poke( ((Number)program.literals[operand]).val );
+                    pc++;
+                    break;
+                case Program.PushZero:
+                    dataStack.push( 0 );
+                    pc++;
+                    break;
+                case Program.Jump:
+                    pc = operand;
+                    break;
+                case Program.JumpIfFalse:
+                    pc = dataStack.isTrue( 0 ) ? pc + 1 : operand;
+                    break;
+                case Program.JumpIfTrue:
+                    pc = dataStack.isTrue( 0 ) ? operand : pc + 1;
+                    break;
+                case Program.PushRegister:
+                    dataStack.push( 0 );
+                    evaluate( program.registers[operand] );
+                    pc++;
+                    break;
+                case Program.PushLiteral:
+                    dataStack.push( program.literals[operand] );
+                    pc++;
+                    break;
+                case Program.JumpIfFalseOrPushRegister:
+                    if (! dataStack.isTrue( 0 )) {
+                        pc = Program.target( instruction );
+                    } else {
+                        dataStack.push( 0 );
+                        evaluate( program.registers[Program.register( instruction )] );
+                        pc++;
+                    }
+                    break;
+                case Program.JumpIfTrueOrPushRegister:
+                    if (dataStack.isTrue( 0 )) {
+                        pc = Program.target( instruction );
+                    } else {
+                        dataStack.push( 0 );
+                        evaluate( program.registers[Program.register( instruction )] );
+                        pc++;
+                    }
+                    break;
+                case Program.Execute:
+                    if (World.Trace) trace( " << ", program.sources[pc] );
+                    result = execute( Operators[operand] );
+                    pc++;
+                    break;
+                case Program.Exit:
+                default:
+                    return Turn.Exited;
+            }
+            if ((code[pc] & Program.InnerStep) != 0) stepWeight++;
+        } while ((code[pc] & Program.StepStart) == 0);
+        if (World.Trace) trace( " < ", source );
         return result;
     }
 
-    private Turn step() {
-        CallRecord callRecord = callStack.peek();
-        if (callRecord == null) return Turn.Exited;
-        if (callRecord instanceof ExpressionListCall) return execute( (ExpressionListCall)callRecord );
-        if (callRecord instanceof OperationCall) return execute( (OperationCall)callRecord );
-        return Turn.Continues;
+    // As the tree walker traced: > entering an expression, << executing an operation,
+    // and < leaving the expression, each with the top of the stack
+    private void trace( String arrow, Expression source ) {
+        System.out.println( host.tracePrefix() + arrow
+            + String.format( "%-30.30s", source )
+            + "\t" + dataStack.toString( 5 ) );
     }
 
     /**
@@ -334,44 +348,34 @@ public class ZoelVM implements Serializable {
      *         Exited if the program ended
      */
     public Turn next() {
-        int steps = 0;
-        Turn result;
-        while ((result = step()) == Turn.Continues) {
-            steps++;
-            if (steps > host.maxStepsPerTurn()) {
-                return Turn.Continues;
-            }
+        int maxSteps = host.maxStepsPerTurn();
+        int steps = pendingSteps;
+        pendingSteps = 0;
+        Turn result = Turn.Continues;
+        while (steps <= maxSteps && (result = step()) == Turn.Continues) {
+            steps += stepWeight;
+        }
+        if (steps > maxSteps) {
+            // Steps beyond this turn count against the next
+            pendingSteps = steps - (maxSteps + 1);
+            stepsTaken = maxSteps + 1;
+            return Turn.Continues;
         }
+        stepsTaken = steps + 1;
         return result;
     }
 
-    // Return the Statement that our program counter points at/before/after
-    private Expression executionCursor( String[] cursorOut ) {
-        CallRecord call = callStack.peek();
-        Expression nextExpr;
-        if (call instanceof OperationCall) {
-            nextExpr = ((OperationCall)call).peek();
-            cursorOut[0] = "======";
-            return nextExpr;
-        }
-        nextExpr = call.peek();
-        cursorOut[0] = ">>>>>";
-        if (nextExpr != null) return nextExpr;
-        ExpressionListCall gCall = (ExpressionListCall)call;
-        nextExpr = gCall.peekBack();
-        cursorOut[0] = "<<<<<";
-        return nextExpr;
+    /**
+     * How many steps the last call to next() took, for deciding which code is hot.
+     */
+    public int stepsTaken() {
+        return stepsTaken;
     }
 
     public String toString( String statementSeparator ) {
         String msg = "Stack: ";
         msg += dataStack.toString( 5 ) + "\n";
-        String cursor[] = new String[1];
-        Expression nextExpr = executionCursor( cursor );
-        CallRecord outerMostScope = callStack.peekBottom();
-        if (! (outerMostScope instanceof ExpressionListCall)) return msg;
-        ExpressionList outerBlock = ((ExpressionListCall)outerMostScope).expressions();
-        msg += outerBlock.toString( statementSeparator, nextExpr, cursor[0] ) + "\n";
+        msg += program.main.toString( statementSeparator, program.sources[pc], ">>>>>" ) + "\n";
         return msg;
     }
 
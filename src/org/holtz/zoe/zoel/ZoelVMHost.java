@@ -18,13 +18,11 @@ public interface ZoelVMHost {
     public String tracePrefix();
 
     public Literal get( RegisterReference arg );
+    /**
+     * The value of a register that is not a Location, without allocating a Literal.
+     */
+    public double getNumber( RegisterReference arg );
     public Literal get( Literal key );
     public Literal put( Literal key, Literal val );
     public Turn execute( Operator op, Literal arg );
-    /**
-     * The implicit argument, if any, of an Operator.
-     * @param op The Operator.
-     * @return A RegisterReference or Literal, or null if op has no implicit argument.
-     */
-    public Expression implicitArgOf( Operator op );
 }
@@ -4,7 +4,6 @@ import java.awt.*;
 import javax.swing.ImageIcon;
 
 import org.holtz.zoe.Bug;
-import org.holtz.zoe.Genotype;
 import org.holtz.zoe.World;
 /**
  * An <code>ImageIcon</code> that can draw a <code>Bug</code>.
@@ -28,7 +27,7 @@ public class BugIcon extends ImageIcon {
         return 4 + 3*bugDiameter();
     }
     public int bugDiameter() {
-        int diameter = (int)Math.round(Math.max( bug.diameter, World.BugMinSize ));
+        int diameter = (int)Math.round(Math.max( bug.diameter(), World.BugMinSize ));
         diameter = Math.max( diameter, BugIcon.MinDiameter );
         return diameter;
     }
@@ -39,7 +38,7 @@ public class BugIcon extends ImageIcon {
         double strengthRatio = bug.strengthRatio();
         double strengthRadians = strengthRatio * Math.PI * 2;
         int strengthDegrees = (int)Math.toDegrees( strengthRadians );
-        int stomachEdge = (int)Math.toDegrees(Math.PI - bug.heading - strengthRadians/2);
+        int stomachEdge = (int)Math.toDegrees(Math.PI - bug.heading() - strengthRadians/2);
         g.fillArc(x - diameter/2, y - diameter/2, diameter, diameter,
             stomachEdge, strengthDegrees );
     }
@@ -47,8 +46,8 @@ public class BugIcon extends ImageIcon {
         int x = xCorner + getIconWidth()/2;
         int y = yCorner + getIconHeight()/2;
         int diameter = bugDiameter();
-        int xOffset = (int)Math.round((Math.cos( bug.heading ) * diameter/2));
-        int yOffset = (int)Math.round((Math.sin( bug.heading ) * diameter/2));
+        int xOffset = (int)Math.round((Math.cos( bug.heading() ) * diameter/2));
+        int yOffset = (int)Math.round((Math.sin( bug.heading() ) * diameter/2));
         int assX = x - xOffset;
         int assY = y - yOffset;
         Polygon thoraxBox = new Polygon();
@@ -78,24 +77,24 @@ public class BugIcon extends ImageIcon {
         g.drawOval(x - diameter/2, y - diameter/2, diameter, diameter);
         paintStomachPie( g, xCorner, yCorner );
         // head
-        if (bug.genotype() == Genotype.algae()) return;
+        if (bug.genotype() == bug.world.algae()) return;
         int headDiam = Math.min( diameter, 15 );
         headDiam = diameter;
-        int headX = x + (int)(Math.cos( bug.heading ) * (diameter/2 + headDiam/2));
-        int headY = y + (int)(Math.sin( bug.heading ) * (diameter/2 + headDiam/2));
+        int headX = x + (int)(Math.cos( bug.heading() ) * (diameter/2 + headDiam/2));
+        int headY = y + (int)(Math.sin( bug.heading() ) * (diameter/2 + headDiam/2));
         g.drawOval(headX - headDiam/2, headY - headDiam/2, headDiam, headDiam);
         // tail
-        int assX = x - (int)Math.round((Math.cos( bug.heading ) * diameter/2));
-        int assY = y - (int)Math.round((Math.sin( bug.heading ) * diameter/2));
+        int assX = x - (int)Math.round((Math.cos( bug.heading() ) * diameter/2));
+        int assY = y - (int)Math.round((Math.sin( bug.heading() ) * diameter/2));
         //int tailLen = (int)Math.round(Math.log( bug.age ) / Math.log( 5 ));
         int tailLen = (int)Math.round(Math.cbrt( bug.age )/4);
-        int assX2 = assX - (int)Math.round((Math.cos( bug.heading ) * tailLen));
-        int assY2 = assY - (int)Math.round((Math.sin( bug.heading ) * tailLen));
+        int assX2 = assX - (int)Math.round((Math.cos( bug.heading() ) * tailLen));
+        int assY2 = assY - (int)Math.round((Math.sin( bug.heading() ) * tailLen));
         //System.out.println( bug.age + " => " + tailLen );
         g.drawLine(assX, assY, assX2, assY2);
         // eye
         if (bug.lastSensed != null) g.setColor( bug.lastSensed.color() );
-        double gaze = bug.heading + bug.gaze;
+        double gaze = bug.heading() + bug.gaze();
         int eyeX = headX + (int)Math.round((Math.cos( gaze ) * headDiam/4));
         int eyeY = headY + (int)Math.round((Math.sin( gaze ) * headDiam/4));
         int eyeRadius = (int)Math.round( (double)headDiam / 6 );
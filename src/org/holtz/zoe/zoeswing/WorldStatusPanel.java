@@ -65,7 +65,7 @@ public class WorldStatusPanel extends JPanel {
         if (top != null) worldText += " [" + top.numLiving + " are species " + top.id + "]";
         worldText += " + " + world.numDead() + " dead, "
             + world.numSpecies() + " + "
-            + (Genotype.getNumEverCreated() - world.numSpecies()) + " extinct"
+            + (world.numSpeciesEverCreated() - world.numSpecies()) + " extinct"
             ;
         double strength = world.strength();
         double mass = world.mass();